@@ -2,45 +2,105 @@
 //JAVA 11+
 //DEPS info.picocli:picocli:4.7.5
 //DEPS org.jsoup:jsoup:1.17.2
+//DEPS org.apache.commons:commons-compress:1.24.0
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.StreamCorruptedException;
 import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystem;
-import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.text.NumberFormat;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.EnumMap;
-import java.util.LinkedHashMap;
+import java.util.EnumSet;
+import java.util.Formattable;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -52,10 +112,13 @@ import picocli.CommandLine.Command;
 import picocli.CommandLine.Model.CommandSpec;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
+import picocli.CommandLine.ParentCommand;
 import picocli.CommandLine.Spec;
 
 @Command(name = "parse-surefire-report", description = "Parses a surefire report and reports information.",
-        showDefaultValues = true, subcommands = AutoComplete.GenerateCompletion.class)
+        showDefaultValues = true, subcommands = {AutoComplete.GenerateCompletion.class, parsesurefire.GenerateCommand.class,
+                parsesurefire.DiffCommand.class, parsesurefire.HistoryCommand.class,
+                parsesurefire.PlanShardsCommand.class, parsesurefire.MergeCommand.class})
 public class parsesurefire implements Callable<Integer> {
 
     /**
@@ -77,12 +140,40 @@ public class parsesurefire implements Callable<Integer> {
                     // end format string
                     ")");
 
-    @Parameters(arity = "1", description = "A surefire XML report or a directory which contains reports.", defaultValue = ".")
+    private static final int HEADER_CHUNK_SIZE = 8192;
+    private static final int HEADER_LIMIT = 65536;
+    private static final long INVALID_TIME = Long.MIN_VALUE;
+    private static final long MAX_PLAIN_SECONDS = 100_000_000_000L;
+    private static final String REPORT_GLOB = "glob:TEST-*.xml";
+    // The size of the buffered output written at once and the maximum number of patterns compiled
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_TEMPLATES = 256;
+    private static final String[] PADDING = {"", " ", "  ", "   ", "    ", "     ", "      ", "       ", "        "};
+
+    @Parameters(arity = "1", description = "A surefire XML report, a directory which contains reports or a zip, tar or tar.gz archive which contains reports.", defaultValue = ".")
     private Path file;
 
     @Option(names = {"-B", "--batch"}, description = "Batch mode disables any colorization of the output.")
     private boolean batch;
 
+    @Option(names = {"--cache"}, description = {
+            "Caches the parsed results of each report in the directory. Reports are only parsed again if the size or last modified time changed.",
+            "If the directory is not defined, target/.surefire-parse-cache is used."},
+            arity = "0..1", fallbackValue = "target/.surefire-parse-cache", paramLabel = "dir")
+    private Path cacheDir;
+
+    @Option(names = {"--emit-partial"}, description = {
+            "Writes a partial summary of the results to the file. The partial summaries of multiple runs, e.g. CI shards, can be combined with the merge command.",
+            "A partial summary contains the counts, the duration histograms and the failed and errored tests."},
+            paramLabel = "file")
+    private Path emitPartial;
+
+    @Option(names = {"--exclude-dir"}, description = {
+            "A glob pattern of directories, relative to the directory being parsed, to not descend into. This can be a comma delimited list.",
+            "A pattern also matches at any depth, e.g. target/classes excludes every target/classes directory."},
+            split = ",", paramLabel = "pattern")
+    private List<String> excludeDirs;
+
     @Option(names = {"-f", "--format"}, description = {
             "The format pattern to use for the output.",
             "The following is are the options for the summary output:",
@@ -99,9 +190,30 @@ public class parsesurefire implements Callable<Integer> {
     @Option(names = {"-g", "--group"}, description = "Groups the results by the directory the files were found in.", defaultValue = "false")
     private boolean group;
 
+    @Option(names = {"--header-only"}, description = {
+            "Reads only the testsuite element attributes of each report to sum the totals. Reports with missing or inconsistent attributes are fully parsed.",
+            "Duplicate tests found in multiple reports are not filtered. This can only be used with the total report type."})
+    private boolean headerOnly;
+
+    @Option(names = {"--max-in-flight"}, description = "The maximum number of megabytes of archive entries read into memory and waiting to be parsed when streaming a tar or a nested zip archive.",
+            defaultValue = "64", paramLabel = "MB")
+    private int maxInFlight;
+
     @Option(names = {"-o", "--output"}, description = "A path to a file used of the output.")
     private String output;
 
+    @Option(names = {"--merge-xml"}, description = {
+            "Writes the tests of all the reports to a single JUnit XML file with a testsuite element for each report, ordered by the report path.",
+            "Duplicate tests found in multiple reports are not filtered."}, paramLabel = "file")
+    private Path mergeXml;
+
+    @Option(names = {"--output-format"}, description = {
+            "The format of the output. The options are ${COMPLETION-CANDIDATES}. The ndjson, json and csv formats write a record for each test as the reports are parsed,",
+            "instead of the report, with the file, status, className, title, testName, time and message. The detailMessage is included with --verbose.",
+            "Duplicate tests found in multiple reports are not filtered and the order of the records depends on the order the reports are parsed in."},
+            defaultValue = "text", paramLabel = "format")
+    private OutputFormat outputFormat;
+
     @Option(names = {"-r", "--report-type"}, description = "The type of output for the report. The options are ${COMPLETION-CANDIDATES}", defaultValue = "total")
     private ReportType reportType;
 
@@ -109,9 +221,38 @@ public class parsesurefire implements Callable<Integer> {
             split = ",")
     private List<Status> statuses;
 
+    @Option(names = {"--filter"}, description = {
+            "Includes only the tests matching the expression, for example: status in (FAILED,ERROR) and time > 5s and class ~ 'org.acme.*IT'.",
+            "The fields are status, class, test and time. The operators are =, !=, in, ~ and !~ for a glob match, and <, <=, > and >= for the time.",
+            "Reports named TEST-<class>.xml, other than TEST-TestSuite.xml, are skipped if the class cannot match."}, paramLabel = "expression")
+    private String filter;
+
+    @Option(names = {"--parser"}, description = "The parser engine used to read the reports. The options are ${COMPLETION-CANDIDATES}", defaultValue = "stax")
+    private ParserEngine parser;
+
+    @Option(names = {"--record"}, description = "Appends the results of this run to the history store in the directory. The history can be queried with the history command.",
+            paramLabel = "store")
+    private Path recordDir;
+
     @Option(names = {"--show-path"}, description = "Shows the path to the file parsed")
     private boolean showPath;
 
+    @Option(names = {"--cluster-failures"}, description = {
+            "Groups the failed and errored tests by the signature of their stack trace and prints the number of tests in each cluster with a representative stack trace.",
+            "The signature ignores line numbers, lambda and proxy ids and hashes."})
+    private boolean clusterFailures;
+
+    @Option(names = {"--histogram"}, description = {
+            "Prints the p50, p90, p99 and maximum test durations overall, for each group and for each test class. Skipped tests are not included.",
+            "The options are ${COMPLETION-CANDIDATES}. The json format prints a JSON object per line."},
+            arity = "0..1", fallbackValue = "table", paramLabel = "format")
+    private HistogramFormat histogram;
+
+    @Option(names = {"--top"}, description = {
+            "Prints only the N slowest tests and the N slowest test classes, by the total time of their tests, instead of the result details.",
+            "When grouping, the slowest are printed for each group."}, paramLabel = "N")
+    private Integer top;
+
     @Option(names = {"--sort-by"}, description = "The order to sort the results. The options are ${COMPLETION-CANDIDATES}", defaultValue = "status")
     private SortBy sortBy;
 
@@ -119,6 +260,18 @@ public class parsesurefire implements Callable<Integer> {
     @Option(names = {"-h", "--help"}, usageHelp = true, description = "Display this help message")
     private boolean usageHelpRequested;
 
+    @Option(names = {"--watch"}, description = {
+            "Watches the directory and redraws the summary as reports are written, modified or deleted, until interrupted.",
+            "Only the changed reports are parsed again. This can only be used with the total report type."})
+    private boolean watch;
+
+    @Option(names = {"--watch-debounce"}, description = "The time, in milliseconds, without changes to a report before it is parsed in watch mode.",
+            defaultValue = "500", paramLabel = "ms")
+    private long watchDebounce;
+
+    @Option(names = {"-t", "--threads"}, description = "The number of threads used to parse the reports. Defaults to the number of available processors.")
+    private Integer threads;
+
     @Option(names = {"-v", "--verbose"}, description = "Prints verbose output.")
     private boolean verbose;
 
@@ -127,6 +280,13 @@ public class parsesurefire implements Callable<Integer> {
 
     private PrintWriter writer;
     private CommandLine.Help.Ansi ansi;
+    private final Map<String, AnsiTemplate> templates = new HashMap<>();
+    private final StringBuilder line = new StringBuilder(256);
+    private boolean buffered;
+    private ReportParser reportParser;
+    private TestFilter testFilter;
+    private final DetailResolver detailResolver = new DetailResolver();
+    private ParseCache parseCache;
 
     public static void main(String... args) {
         final CommandLine commandLine = new CommandLine(new parsesurefire());
@@ -141,28 +301,102 @@ public class parsesurefire implements Callable<Integer> {
     public Integer call() throws Exception {
         final Instant start = Instant.now();
         try {
-            final Map<Path, EnumMap<Status, Set<TestResult>>> grouped = parseFile(file);
-            final EnumMap<Status, Set<TestResult>> totals = createResultMap();
+            // Compile the filter before any reports are parsed to report an invalid expression
+            getTestFilter();
+            if (outputFormat != OutputFormat.text) {
+                if (watch || headerOnly || group || top != null || histogram != null || clusterFailures || recordDir != null || emitPartial != null
+                        || mergeXml != null) {
+                    throw new CommandLine.ParameterException(spec.commandLine(),
+                            "The --output-format option cannot be used with the --watch, --header-only, --group, --top, --histogram, --cluster-failures, --record, --emit-partial or --merge-xml options.");
+                }
+                exportResults();
+                return 0;
+            }
+            if (mergeXml != null) {
+                if (watch || headerOnly || group || reportType.printDetail() || top != null || histogram != null || clusterFailures
+                        || recordDir != null || emitPartial != null) {
+                    throw new CommandLine.ParameterException(spec.commandLine(),
+                            "The --merge-xml option can only be used with the total report type and cannot be used with the --watch, --header-only, --group, --top, --histogram, --cluster-failures, --record or --emit-partial options.");
+                }
+                writeMergedXml();
+                return 0;
+            }
+            if (watch) {
+                if (headerOnly || group || reportType.printDetail() || top != null || histogram != null || clusterFailures
+                        || recordDir != null || emitPartial != null) {
+                    throw new CommandLine.ParameterException(spec.commandLine(),
+                            "The --watch option can only be used with the total report type and cannot be used with the --header-only, --group, --top, --histogram, --cluster-failures, --record or --emit-partial options.");
+                }
+                if (!Files.isDirectory(file)) {
+                    throw new CommandLine.ParameterException(spec.commandLine(), "The --watch option requires a directory.");
+                }
+                if (watchDebounce < 0) {
+                    throw new CommandLine.ParameterException(spec.commandLine(), "The --watch-debounce value cannot be negative.");
+                }
+                new ReportWatcher(file).run();
+                return 0;
+            }
+            if (headerOnly) {
+                if (reportType.printDetail()) {
+                    throw new CommandLine.ParameterException(spec.commandLine(), "The --header-only option can only be used with the total report type.");
+                }
+                if (top != null || histogram != null || clusterFailures || recordDir != null || emitPartial != null || filter != null) {
+                    throw new CommandLine.ParameterException(spec.commandLine(), "The --header-only option cannot be used with the --top, --histogram, --cluster-failures, --record, --emit-partial or --filter options.");
+                }
+                final Map<Path, TestTotals> grouped = parseFile(file, TestTotals::new, this::parseTotals, TestTotals::add);
+                final TestTotals totals = new TestTotals();
+                for (var group : grouped.entrySet()) {
+                    if (this.group) {
+                        print("@|bold,cyan %s|@", group.getKey());
+                        totals.add(group.getValue());
+                    }
+                    printSummary(group.getValue().format());
+                }
+                if (group) {
+                    print("@|bold All Tests|@");
+                    printSummary(totals.format());
+                }
+                return 0;
+            }
+            if (top != null && top < 1) {
+                throw new CommandLine.ParameterException(spec.commandLine(), "The --top value must be greater than 0.");
+            }
+            // A partial summary always contains the histograms
+            final boolean histograms = histogram != null || emitPartial != null;
+            final Map<Path, ResultStore> grouped = parseFile(file, () -> new ResultStore(histograms), this::parseResults, ResultStore::addAll);
+            final ResultStore totals = new ResultStore(histograms);
             for (var group : grouped.entrySet()) {
                 final var results = group.getValue();
                 if (this.group) {
                     print("@|bold,cyan %s|@", group.getKey());
-                    for (Status status : results.keySet()) {
-                        totals.get(status).addAll(results.get(status));
-                    }
+                    totals.addAll(results);
                 }
-                printTotals(results, reportType.printDetail());
+                printTotals(group.getKey(), results, reportType.printDetail());
             }
             if (group) {
                 print("@|bold All Tests|@");
-                printTotals(totals, false);
+                printTotals(null, totals, false);
+            }
+            if (recordDir != null || emitPartial != null) {
+                if (!group) {
+                    grouped.values().forEach(totals::addAll);
+                }
+                if (recordDir != null) {
+                    HistoryStore.record(recordDir, totals, start.toEpochMilli());
+                }
+                if (emitPartial != null) {
+                    PartialSummary.write(emitPartial, file, totals);
+                }
             }
             return 0;
         } finally {
             if (verbose) {
-                spec.commandLine()
-                        .getOut()
-                        .println(format("@|bold Completed in %s|@", toHumanReadable(Duration.between(start, Instant.now()))));
+                // Keep the exported records parsable when written to the standard output
+                final PrintWriter out = outputFormat == OutputFormat.text ? spec.commandLine().getOut() : spec.commandLine().getErr();
+                out.println(format("@|bold Completed in %s|@", toHumanReadable(Duration.between(start, Instant.now()))));
+                if (parseCache != null) {
+                    out.println(format("@|bold Cache hits: %d - misses: %d|@", parseCache.hits.sum(), parseCache.misses.sum()));
+                }
             }
             if (writer != null && output != null) {
                 writer.close();
@@ -170,158 +404,350 @@ public class parsesurefire implements Callable<Integer> {
         }
     }
 
-    private Map<Path, EnumMap<Status, Set<TestResult>>> parseFile(final Path file) throws IOException, InterruptedException {
-        // If this is a directory, it cannot be a ZIP file
-        if (Files.isDirectory(file)) {
-            return parseFile(FileSystems.getDefault(), file);
-        }
-        // Check if this is a zip file
-        try (InputStream in = Files.newInputStream(file)) {
-            // Read the first 4 bytes
-            final byte[] bytes = new byte[4];
-            final int len = in.read(bytes);
-            if (len == 4) {
-                // The first 4 bytes are the header, we'll check to see if it's a zip file
-                final int header = bytes[0] + (bytes[1] << 8) + (bytes[2] << 16) + (bytes[3] << 24);
-                if (0x04034b50 == header) {
-                    final URI uri = URI.create("jar:" + file.toUri());
-                    FileSystem zipFs;
+    private void exportResults() throws IOException, InterruptedException {
+        final ResultWriter resultWriter = new ResultWriter(getWriter(), outputFormat, verbose);
+        final Set<Status> toExport = getStatusesToPrint();
+        resultWriter.begin();
+        parseFile(file, StringBuilder::new, (source, buffer) -> exportResults(source, resultWriter, toExport, buffer), (buffer, other) -> {
+        });
+        resultWriter.end();
+    }
+
+    private void exportResults(final ReportSource source, final ResultWriter resultWriter, final Set<Status> toExport, final StringBuilder buffer) {
+        try {
+            final boolean found = parseReport(source, result -> {
+                if (toExport.contains(result.status)) {
                     try {
-                        zipFs = FileSystems.getFileSystem(uri);
-                    } catch (FileSystemNotFoundException ignore) {
-                        zipFs = FileSystems.newFileSystem(uri, Map.of());
+                        resultWriter.write(result, buffer);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
-                    return parseFile(zipFs, zipFs.getPath("/"));
                 }
+            });
+            if (!found) {
+                spec.commandLine().getErr().println(format("No testsuite found in %s", source.path()));
             }
+        } catch (IOException e) {
+            printParseError(source.path(), e);
+        } catch (UncheckedIOException e) {
+            printParseError(source.path(), e.getCause());
+        } finally {
+            resultWriter.flush(buffer);
         }
-        return parseFile(FileSystems.getDefault(), file);
     }
 
-    private Map<Path, EnumMap<Status, Set<TestResult>>> parseFile(final FileSystem fs, final Path file) throws IOException, InterruptedException {
-        final Map<Path, EnumMap<Status, Set<TestResult>>> grouped = new TreeMap<>();
-        if (Files.isDirectory(file)) {
-            final ForkJoinPool pool = new ForkJoinPool();
-            final var pattern = fs.getPathMatcher("glob:**/TEST-*.xml");
-            final var globalResults = createResultMap();
-            try (Stream<Path> files = Files.walk(file)) {
-                files.filter(pattern::matches)
-                        .forEach(p -> pool.submit(new RecursiveAction() {
-                            @Override
-                            protected void compute() {
-                                final EnumMap<Status, Set<TestResult>> results;
-                                if (group) {
-                                    synchronized (grouped) {
-                                        results = grouped.computeIfAbsent(p.getParent(), (current) -> createResultMap());
-                                    }
-                                } else {
-                                    synchronized (grouped) {
-                                        results = grouped.computeIfAbsent(file, (current) -> globalResults);
-                                    }
-                                }
-                                parseResults(p, results);
-                            }
-                        }));
+    private void writeMergedXml() throws IOException, InterruptedException {
+        final Set<Status> toWrite = getStatusesToPrint();
+        try (MergedXmlWriter xmlWriter = new MergedXmlWriter()) {
+            parseFile(file, xmlWriter::createSpill, (source, spill) -> writeSuite(source, xmlWriter, toWrite, spill), (spill, other) -> {
+            });
+            final int[] counts = xmlWriter.write(mergeXml);
+            final int passed = counts[Status.PASSED.ordinal()];
+            final int failed = counts[Status.FAILED.ordinal()];
+            final int errors = counts[Status.ERROR.ordinal()];
+            final int skipped = counts[Status.SKIPPED.ordinal()];
+            printSummary(formatTotal(passed + failed + errors + skipped, passed, failed, errors, skipped));
+        }
+    }
+
+    private void writeSuite(final ReportSource source, final MergedXmlWriter xmlWriter, final Set<Status> toWrite, final SuiteSpill spill) {
+        final List<TestResult> results = new ArrayList<>();
+        try {
+            final boolean found = parseReport(source, result -> {
+                if (toWrite.contains(result.status)) {
+                    results.add(result);
+                }
+            });
+            if (!found) {
+                print("No testsuite found in %s", source.path());
+            } else if (!results.isEmpty()) {
+                xmlWriter.writeSuite(spill, source.path(), xmlWriter.suiteName(source), results);
             }
-            pool.shutdown();
-            if (!pool.awaitTermination(60L, TimeUnit.MINUTES)) {
-                throw new CommandLine.ExecutionException(spec.commandLine(), "Parsing did not complete within 60 minutes.");
+        } catch (IOException e) {
+            printParseError(source.path(), e);
+        }
+    }
+
+    private ResultStore parseAll(final Path file) throws IOException, InterruptedException {
+        final ResultStore results = new ResultStore();
+        for (ResultStore group : parseFile(file, ResultStore::new, this::parseResults, ResultStore::addAll).values()) {
+            results.addAll(group);
+        }
+        return results;
+    }
+
+    private <T> Map<Path, T> parseFile(final Path file, final Supplier<T> factory, final BiConsumer<ReportSource, T> parser,
+                                       final BiConsumer<T, T> merger) throws IOException, InterruptedException {
+        // If this is a directory, it cannot be a ZIP file
+        if (Files.isDirectory(file)) {
+            return parseFile(file, factory, parser, merger, context -> new ReportWalker(file, context).task(file));
+        }
+        // Check if this is an archive
+        final ArchiveType archiveType = ArchiveType.of(file);
+        if (archiveType == ArchiveType.ZIP) {
+            try (ZipFile zip = new ZipFile(file.toFile())) {
+                return parseFile(file, factory, parser, merger, context -> new ZipReportReader(file, zip, context).task());
             }
-        } else {
-            final var results = createResultMap();
-            parseResults(file, results);
-            grouped.put(file, results);
         }
+        if (archiveType != ArchiveType.NONE) {
+            return parseFile(file, factory, parser, merger, context -> new TarReportReader(file, archiveType, context).task());
+        }
+        final Map<Path, T> grouped = new TreeMap<>();
+        final T results = factory.get();
+        parser.accept(ReportSource.of(file), results);
+        grouped.put(file, results);
         return grouped;
     }
 
-    private EnumMap<Status, Set<TestResult>> createResultMap() {
-        final EnumMap<Status, Set<TestResult>> map = new EnumMap<>(Status.class);
-        map.put(Status.PASSED, ConcurrentHashMap.newKeySet());
-        map.put(Status.FAILED, ConcurrentHashMap.newKeySet());
-        map.put(Status.ERROR, ConcurrentHashMap.newKeySet());
-        map.put(Status.SKIPPED, ConcurrentHashMap.newKeySet());
-        return map;
+    private <T> Map<Path, T> parseFile(final Path root, final Supplier<T> factory, final BiConsumer<ReportSource, T> parser,
+                                       final BiConsumer<T, T> merger, final Function<ParseContext<T>, ForkJoinTask<?>> producer)
+            throws InterruptedException {
+        final ForkJoinPool pool = createPool();
+        try {
+            final ParseContext<T> context = new ParseContext<>(root, factory, parser);
+            await(pool.submit(producer.apply(context)));
+            return new TreeMap<>(context.merge(pool, merger));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void await(final Future<?> future) throws InterruptedException {
+        try {
+            future.get(60L, TimeUnit.MINUTES);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new CommandLine.ExecutionException(spec.commandLine(), "Parsing did not complete within 60 minutes.");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CommandLine.ExecutionException(spec.commandLine(), "Failed to parse the reports.", cause);
+        }
     }
 
-    private void printTotals(final EnumMap<Status, Set<TestResult>> results, final boolean printDetail) {
-        final Set<TestResult> passedResults = new TreeSet<>(results.get(Status.PASSED));
-        final Set<TestResult> failedResults = new TreeSet<>(results.get(Status.FAILED));
-        final Set<TestResult> errorResults = new TreeSet<>(results.get(Status.ERROR));
-        final Set<TestResult> skippedResults = new TreeSet<>(results.get(Status.SKIPPED));
+    private ForkJoinPool createPool() {
+        if (maxInFlight < 1) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "The --max-in-flight value must be greater than 0.");
+        }
+        if (threads == null) {
+            return new ForkJoinPool();
+        }
+        if (threads < 1) {
+            throw new CommandLine.ParameterException(spec.commandLine(), "The number of threads must be greater than 0.");
+        }
+        return new ForkJoinPool(threads);
+    }
 
+    private void printTotals(final Path group, final ResultStore results, final boolean printDetail) {
         // Prepare the summary first to validate the format pattern
-        final var success = passedResults.size();
-        final var failures = failedResults.size();
-        final var errors = errorResults.size();
-        final var skipped = skippedResults.size();
+        final var success = results.count(Status.PASSED);
+        final var failures = results.count(Status.FAILED);
+        final var errors = results.count(Status.ERROR);
+        final var skipped = results.count(Status.SKIPPED);
         final var totalSummary = formatTotal((success + failures + errors + skipped), success, failures, errors, skipped);
 
-        if (printDetail) {
-            if (sortBy == SortBy.status) {
-                final Map<Status, Set<TestResult>> toPrint = new LinkedHashMap<>(4);
-                if (statuses == null || statuses.isEmpty()) {
-                    toPrint.put(Status.PASSED, passedResults);
-                    toPrint.put(Status.FAILED, failedResults);
-                    toPrint.put(Status.ERROR, errorResults);
-                    toPrint.put(Status.SKIPPED, skippedResults);
-                } else {
-                    if (statuses.contains(Status.PASSED)) {
-                        toPrint.put(Status.PASSED, passedResults);
-                    }
-                    if (statuses.contains(Status.FAILED)) {
-                        toPrint.put(Status.FAILED, failedResults);
-                    }
-                    if (statuses.contains(Status.ERROR)) {
-                        toPrint.put(Status.ERROR, errorResults);
-                    }
-                    if (statuses.contains(Status.SKIPPED)) {
-                        toPrint.put(Status.SKIPPED, skippedResults);
-                    }
-                }
-                final Collection<Map.Entry<Status, Set<TestResult>>> entries = List.copyOf(toPrint.entrySet());
-                for (var entry : entries) {
-                    if (entry.getValue().isEmpty()) {
-                        print("No %s tests found.", entry.getKey().name());
-                    } else {
-                        printResult(entry.getKey(), entry.getValue());
+        if (top != null) {
+            printTop(results);
+        } else if (printDetail) {
+            final Set<Status> toPrint = getStatusesToPrint();
+            printBuffered(() -> {
+                if (sortBy == SortBy.status) {
+                    for (Status status : toPrint) {
+                        final int[] rows = results.sortedRows(EnumSet.of(status), sortBy);
+                        if (rows.length == 0) {
+                            print("No %s tests found.", status.name());
+                        } else {
+                            printResult(status, results, rows);
+                        }
+                        print();
                     }
-                    print();
-                }
-            } else {
-                final List<TestResult> combined = new ArrayList<>();
-                if (statuses == null || statuses.isEmpty()) {
-                    combined.addAll(passedResults);
-                    combined.addAll(failedResults);
-                    combined.addAll(errorResults);
-                    combined.addAll(skippedResults);
                 } else {
-                    if (statuses.contains(Status.PASSED)) {
-                        combined.addAll(passedResults);
-                    }
-                    if (statuses.contains(Status.FAILED)) {
-                        combined.addAll(failedResults);
-                    }
-                    if (statuses.contains(Status.ERROR)) {
-                        combined.addAll(errorResults);
-                    }
-                    if (statuses.contains(Status.SKIPPED)) {
-                        combined.addAll(skippedResults);
+                    printSortedResult(sortBy, results, results.sortedRows(toPrint, sortBy));
+                }
+                print();
+            });
+        }
+        if (clusterFailures) {
+            printFailureClusters(results);
+        }
+        if (histogram == HistogramFormat.json) {
+            printHistogramJson(group, results);
+        } else if (histogram == HistogramFormat.table) {
+            printHistogramTable(group, results);
+        }
+        // Print a summary
+        printSummary(totalSummary);
+    }
+
+    private Set<Status> getStatusesToPrint() {
+        return (statuses == null || statuses.isEmpty()) ? EnumSet.allOf(Status.class) : EnumSet.copyOf(statuses);
+    }
+
+    private void printTop(final ResultStore results) {
+        final Set<Status> toPrint = getStatusesToPrint();
+        final int[] rows = results.slowestRows(toPrint, top);
+        print("@|bold,white Slowest %d Tests:|@", rows.length);
+        for (int row : rows) {
+            final TestResult result = results.get(row);
+            print(4, "@|bold,cyan %s.%s|@ @|%s [%s]|@ @|bold,white - Time elapsed: %s|@", result.className, result.testName,
+                    getStatusColor(result.status), result.status, formatTime(result.time));
+            if (verbose || showPath) {
+                print(8, "@|red file: %s|@", result.file);
+            }
+        }
+        print();
+        final List<ClassTime> classes = results.slowestClasses(toPrint, top);
+        print("@|bold,white Slowest %d Classes:|@", classes.size());
+        for (ClassTime classTime : classes) {
+            print(4, "@|bold,cyan %s|@ @|bold,white - Tests: %d - Time elapsed: %s|@", classTime.className, classTime.tests,
+                    formatTime(classTime.time));
+        }
+        print();
+    }
+
+    private void printFailureClusters(final ResultStore results) {
+        final Set<Status> toPrint = getStatusesToPrint();
+        toPrint.retainAll(EnumSet.of(Status.FAILED, Status.ERROR));
+        final List<FailureCluster> clusters = results.failureClusters(toPrint);
+        if (clusters.isEmpty()) {
+            print("No failure clusters found.");
+            print();
+            return;
+        }
+        print("@|bold,white Failure Clusters:|@");
+        for (FailureCluster cluster : clusters) {
+            final StringBuilder counts = new StringBuilder();
+            for (Status status : toPrint) {
+                final int count = cluster.counts[status.ordinal()];
+                if (count > 0) {
+                    if (counts.length() > 0) {
+                        counts.append(", ");
                     }
+                    counts.append("@|").append(getStatusColor(status)).append(' ').append(status).append(": ").append(count).append("|@");
                 }
-                final Comparator<TestResult> comparator;
-                if (sortBy == SortBy.name) {
-                    combined.addAll(skippedResults);
-                    comparator = Comparator.comparing(testResult -> testResult.className);
-                } else {
-                    comparator = Comparator.comparing(testResult -> testResult.time);
+            }
+            final int others = cluster.total() - 1;
+            print(4, "@|bold %d|@ [%s] @|bold,cyan %s.%s|@%s", cluster.total(), counts, cluster.className,
+                    cluster.testName, others == 0 ? "" : (others == 1 ? " and 1 other" : " and " + others + " others"));
+            cluster.signature.trace.lines()
+                    .forEach(line -> print(line.startsWith("at ") ? 12 : 8, "%s", line));
+        }
+        print();
+    }
+
+    /**
+     * Prints the duration percentiles as a table. The test classes are not printed for the totals of all groups.
+     *
+     * @param group   the group or {@code null} for the totals of all groups
+     * @param results the results
+     */
+    private void printHistogramTable(final Path group, final ResultStore results) {
+        final int[] classIds = group == null ? new int[0] : results.histogramClassIds();
+        int width = "All Tests".length();
+        for (int id : classIds) {
+            width = Math.max(width, results.name(id).length());
+        }
+        final String rowFormat = "%-" + width + "s %8s %10s %10s %10s %10s";
+        print("@|bold,white Test Durations:|@");
+        print(4, "@|bold " + rowFormat + "|@", "", "Tests", "p50", "p90", "p99", "Max");
+        printHistogramRow(rowFormat, "All Tests", results.histogram());
+        for (int id : classIds) {
+            printHistogramRow(rowFormat, results.name(id), results.histogram(id));
+        }
+        print();
+    }
+
+    private void printHistogramRow(final String rowFormat, final String name, final DurationHistogram histogram) {
+        if (histogram.count() == 0) {
+            print(4, rowFormat, name, 0, "-", "-", "-", "-");
+        } else {
+            print(4, rowFormat, name, histogram.count(), formatTime(histogram.percentile(50)), formatTime(histogram.percentile(90)),
+                    formatTime(histogram.percentile(99)), formatTime(histogram.max()));
+        }
+    }
+
+    /**
+     * Prints the duration percentiles as a single line JSON object. The times are in seconds.
+     *
+     * @param group   the group or {@code null} for the totals of all groups
+     * @param results the results
+     */
+    private void printHistogramJson(final Path group, final ResultStore results) {
+        final StringBuilder json = new StringBuilder(256);
+        json.append("{\"group\":");
+        if (group == null) {
+            json.append("null");
+        } else {
+            appendJsonString(json, group.toString());
+        }
+        json.append(",\"all\":");
+        appendHistogramJson(json, results.histogram());
+        if (group != null) {
+            json.append(",\"classes\":{");
+            final int[] classIds = results.histogramClassIds();
+            for (int i = 0; i < classIds.length; i++) {
+                if (i > 0) {
+                    json.append(',');
                 }
-                combined.sort(comparator);
-                printSortedResult(sortBy, combined);
+                appendJsonString(json, results.name(classIds[i]));
+                json.append(':');
+                appendHistogramJson(json, results.histogram(classIds[i]));
             }
-            print();
+            json.append('}');
         }
-        // Print a summary
+        getWriter().println(json.append('}'));
+    }
+
+    private static void appendHistogramJson(final StringBuilder json, final DurationHistogram histogram) {
+        json.append("{\"count\":").append(histogram.count());
+        if (histogram.count() > 0) {
+            json.append(",\"min\":").append(formatTime(histogram.min()))
+                    .append(",\"p50\":").append(formatTime(histogram.percentile(50)))
+                    .append(",\"p90\":").append(formatTime(histogram.percentile(90)))
+                    .append(",\"p99\":").append(formatTime(histogram.percentile(99)))
+                    .append(",\"max\":").append(formatTime(histogram.max()))
+                    .append(",\"total\":").append(formatTime(histogram.total()));
+        }
+        json.append('}');
+    }
+
+    private static void appendJsonString(final StringBuilder json, final String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    private void printSummary(final String totalSummary) {
         // Determine the output length
         final var len = format(CommandLine.Help.Ansi.OFF, totalSummary).length() + 2;
         print("*".repeat(len));
@@ -329,7 +755,7 @@ public class parsesurefire implements Callable<Integer> {
         print("*".repeat(len));
     }
 
-    private void printResult(final Status status, final Set<TestResult> results) {
+    private void printResult(final Status status, final ResultStore results, final int[] rows) {
         final var prefix = status.name().charAt(0) + status.name().substring(1).toLowerCase(Locale.ROOT);
         print("@|bold,white %s Tests:|@", prefix);
         String currentTest = null;
@@ -337,7 +763,8 @@ public class parsesurefire implements Callable<Integer> {
         int count = 0;
         final var countFormat = "@|" + getStatusColor(status) + " Total " + status.toString()
                 .toLowerCase(Locale.ROOT) + " for %s: %d|@";
-        for (TestResult result : results) {
+        for (int row : rows) {
+            final TestResult result = results.get(row);
             if (!result.className.equals(currentTest)) {
                 if (count > 0) {
                     print(countFormat, currentTest, count);
@@ -367,10 +794,11 @@ public class parsesurefire implements Callable<Integer> {
         }
     }
 
-    private void printSortedResult(final SortBy sortBy, final List<TestResult> results) {
+    private void printSortedResult(final SortBy sortBy, final ResultStore results, final int[] rows) {
         String currentTest = null;
-        BigDecimal totalTime = new BigDecimal("0.000");
-        for (TestResult result : results) {
+        long totalTime = 0L;
+        for (int row : rows) {
+            final TestResult result = results.get(row);
             if (sortBy == SortBy.name) {
                 if (!result.className.equals(currentTest)) {
                     print("@|cyan %s|@", result.className);
@@ -381,31 +809,74 @@ public class parsesurefire implements Callable<Integer> {
                 currentTest = result.className;
                 printDetail(result);
             } else {
-                totalTime = totalTime.add(result.time);
+                // Sum the rounded milliseconds so the total matches the sum of the times printed
+                totalTime += toMillis(result.time);
                 print("@|bold,cyan %s.%s|@ @|%s [%s]|@ @|bold,white - Time elapsed: %s|@", result.className, result.testName,
-                        getStatusColor(result.status), result.status, result.time);
+                        getStatusColor(result.status), result.status, formatTime(result.time));
             }
         }
         if (sortBy == SortBy.time) {
-            print("@|bold,white Total Time: %s|@", totalTime);
+            print("@|bold,white Total Time: %s|@", formatMillis(totalTime));
         }
     }
 
     private void printDetail(final TestResult result) {
         if (reportType != ReportType.summary) {
-            print(4, "%s - Time elapsed: %s @|%s [%s]|@", result.testName, result.time,
+            print(4, "%s - Time elapsed: %s @|%s [%s]|@", result.testName, formatTime(result.time),
                     getStatusColor(result.status), result.status);
         }
         if (reportType != ReportType.summary && !result.message.isBlank()) {
             print(8, "Reason: %s", result.message);
         }
-        if (verbose && !result.detailMessage.isBlank()) {
-            print(8, "Detailed:");
-            result.detailMessage.lines()
-                    .forEach(line -> print(8, line));
+        if (verbose && !result.detailMessage.isEmpty()) {
+            final String detailMessage;
+            try {
+                detailMessage = result.detailMessage.read();
+            } catch (IOException e) {
+                print(8, "@|red Failed to read the detail message from %s: %s|@", result.file, e.getMessage());
+                return;
+            }
+            if (!detailMessage.isBlank()) {
+                print(8, "Detailed:");
+                detailMessage.lines()
+                        .forEach(line -> print(8, line));
+            }
         }
     }
 
+    /**
+     * Indicates whether the detail messages need to be kept when parsing. They are only printed in verbose mode, but
+     * the cache and partial summaries need them for subsequent invocations.
+     *
+     * @return {@code true} if the detail messages should be kept
+     */
+    private boolean keepDetailMessages() {
+        return verbose || cacheDir != null || emitPartial != null || mergeXml != null;
+    }
+
+    /**
+     * Indicates whether the detail messages of the report are referenced and read again when required. The results
+     * which are written as the reports are parsed read the detail messages while parsing, otherwise the parsing threads
+     * would compete to read the reports again.
+     *
+     * @param source the report
+     *
+     * @return {@code true} if the detail messages should be referenced
+     */
+    private boolean referenceDetailMessages(final ReportSource source) {
+        return keepDetailMessages() && source.isRereadable() && outputFormat == OutputFormat.text && mergeXml == null;
+    }
+
+    /**
+     * Indicates whether the signatures of the failures need to be determined when parsing. The cache and partial
+     * summaries always store the signatures so they can be used for any invocation.
+     *
+     * @return {@code true} if the signatures should be determined
+     */
+    private boolean computeSignatures() {
+        return clusterFailures || cacheDir != null || emitPartial != null;
+    }
+
     private String getStatusColor(final Status status) {
         switch (status) {
             case FAILED:
@@ -419,98 +890,170 @@ public class parsesurefire implements Callable<Integer> {
         return "white";
     }
 
-    private void parseResults(final Path file, final Map<Status, Set<TestResult>> results) {
+    private void parseResults(final ReportSource source, final ResultStore results) {
         try {
-            final String xml = Files.readString(file);
-            final Document document = Jsoup.parse(xml, Parser.xmlParser());
-
-            final Elements testsuites = document.select("testsuite");
-            if (testsuites.isEmpty()) {
-                print("No testsuite found in %s", file);
-                return;
+            if (!parseReport(source, result -> addTestResult(result, results))) {
+                print("No testsuite found in %s", source.path());
             }
-            parseResults(file, document, results);
         } catch (IOException e) {
-            throw new UncheckedIOException(e);
+            printParseError(source.path(), e);
         }
     }
 
-    private void parseResults(final Path file, final Document document, final Map<Status, Set<TestResult>> results) {
-        final Set<TestResult> passedResults = results.get(Status.PASSED);
-        final Set<TestResult> failedResults = results.get(Status.FAILED);
-        final Set<TestResult> errorResults = results.get(Status.ERROR);
-        final Set<TestResult> skippedResults = results.get(Status.SKIPPED);
-
-        final Elements testsuites = document.select("testsuite");
-        if (testsuites.isEmpty()) {
-            return;
+    /**
+     * Parses the report with the filter applied. Cached results are stored unfiltered so the filter is applied after
+     * the results are read from the cache, otherwise the filter is evaluated by the parser.
+     *
+     * @param source   the report
+     * @param consumer the consumer invoked for each matching test result
+     *
+     * @return {@code true} if a {@code testsuite} element was found or the report was skipped by the filter
+     *
+     * @throws IOException if an error occurs reading or parsing the report
+     */
+    private boolean parseReport(final ReportSource source, final Consumer<TestResult> consumer) throws IOException {
+        final TestFilter filter = getTestFilter();
+        if (!filter.acceptsReport(source.path())) {
+            return true;
         }
-
-        final Elements tests = testsuites.select("testcase");
-        for (Element test : tests) {
-            final Elements skipped = test.select("skipped");
-            if (!skipped.isEmpty()) {
-                addTestResult(parseSkipped(file, test, skipped), skippedResults);
-                continue;
+        if (cacheDir == null) {
+            return getReportParser().parse(source, filter, consumer);
+        }
+        if (filter == TestFilter.ALL) {
+            return getParseCache().parse(source, getReportParser(), consumer);
+        }
+        return getParseCache().parse(source, getReportParser(), result -> {
+            if (filter.test(result)) {
+                consumer.accept(result);
             }
-            final Elements failure = test.select("failure");
-            if (!failure.isEmpty()) {
-                addTestResult(parseFailed(file, test, failure), failedResults);
-                continue;
+        });
+    }
+
+    private void parseTotals(final ReportSource source, final TestTotals totals) {
+        try {
+            if (!readHeaderTotals(source, totals)) {
+                if (verbose) {
+                    print("@|yellow Invalid or missing testsuite attributes, parsing all tests in %s|@", source.path());
+                }
+                final boolean found = getReportParser().parse(source, result -> totals.increment(result.status));
+                if (!found) {
+                    print("No testsuite found in %s", source.path());
+                }
             }
-            final Elements errors = test.select("error");
-            if (!errors.isEmpty()) {
-                addTestResult(parseError(file, test, errors), errorResults);
-                continue;
+        } catch (IOException e) {
+            printParseError(source.path(), e);
+        }
+    }
+
+    private void printParseError(final Path file, final IOException e) {
+        final var err = spec.commandLine().getErr();
+        final Throwable cause = e.getCause() == null ? e : e.getCause();
+        err.println(format("@|red Failed to parse %s: %s|@", file, cause.getMessage()));
+        if (verbose) {
+            e.printStackTrace(err);
+        }
+    }
+
+    /**
+     * Reads the leading bytes of the report up to the end of the {@code testsuite} start tag and adds the totals
+     * from the attributes.
+     *
+     * @param source the report to read
+     * @param totals the totals to add the values to
+     *
+     * @return {@code true} if the totals were added, {@code false} if the report requires a full parse
+     *
+     * @throws IOException if an error occurs reading the file
+     */
+    private boolean readHeaderTotals(final ReportSource source, final TestTotals totals) throws IOException {
+        Map<String, String> attributes = null;
+        try (InputStream in = source.open()) {
+            byte[] buffer = new byte[HEADER_CHUNK_SIZE];
+            int len = 0;
+            int read;
+            while ((read = in.read(buffer, len, buffer.length - len)) > 0) {
+                len += read;
+                final SuiteHeader header = SuiteHeader.parse(buffer, len);
+                if (header != SuiteHeader.INCOMPLETE) {
+                    attributes = header.attributes;
+                    break;
+                }
+                if (len == buffer.length) {
+                    if (buffer.length >= HEADER_LIMIT) {
+                        break;
+                    }
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
             }
-            addTestResult(TestResult.passed(file, test.attr("classname"), test.attr("name"), createTime(test.attr("time"))),
-                    passedResults);
         }
+        if (attributes == null) {
+            return false;
+        }
+        final int tests = parseCount(attributes.get("tests"));
+        final int failures = parseCount(attributes.get("failures"));
+        final int errors = parseCount(attributes.get("errors"));
+        final int skipped = parseCount(attributes.get("skipped"));
+        if (tests < 0 || failures < 0 || errors < 0 || skipped < 0 || (failures + errors + skipped) > tests) {
+            return false;
+        }
+        totals.add(tests - failures - errors - skipped, failures, errors, skipped);
+        return true;
     }
 
-    private void addTestResult(final TestResult result, final Set<TestResult> results) {
-        if (!results.add(result) && verbose) {
-            print("@|red Did not add result: %s|@%n@|green Duplicate        : %s|@", result, results.stream()
-                    .filter(result::equals)
-                    .findFirst()
-                    .orElse(null));
+    private static int parseCount(final String value) {
+        if (value == null || value.isBlank()) {
+            return -1;
         }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private synchronized ParseCache getParseCache() {
+        if (parseCache == null) {
+            parseCache = new ParseCache(cacheDir, detailResolver, parser);
+        }
+        return parseCache;
     }
 
-    private TestResult parseSkipped(final Path file, final Element test, final Elements skipped) {
-        final Element e = skipped.first();
-        String message = "";
-        if (e != null) {
-            message = e.attr("message");
+    private synchronized TestFilter getTestFilter() {
+        if (testFilter == null) {
+            if (filter == null) {
+                testFilter = TestFilter.ALL;
+            } else {
+                try {
+                    testFilter = TestFilter.compile(filter);
+                } catch (IllegalArgumentException e) {
+                    throw new CommandLine.ParameterException(spec.commandLine(), e.getMessage(), e, null, filter);
+                }
+            }
         }
-        return TestResult.skipped(file, test.attr("classname"), test.attr("name"), createTime(test.attr("time")), message);
+        return testFilter;
     }
 
-    private TestResult parseFailed(final Path file, final Element test, final Elements failed) {
-        final Element failure = failed.first();
-        String message = "";
-        String detailMessage = "";
-        if (failure != null) {
-            message = failure.attr("message");
-            detailMessage = failure.hasText() ? failure.text() : "";
+    private ReportParser getReportParser() {
+        if (reportParser == null) {
+            if (parser == ParserEngine.jsoup) {
+                reportParser = new JsoupReportParser();
+            } else if (parser == ParserEngine.mapped) {
+                reportParser = new MappedReportParser();
+            } else {
+                reportParser = new StaxReportParser();
+            }
         }
-        return TestResult.failed(file, test.attr("classname"), test.attr("name"), createTime(test.attr("time")), message, detailMessage);
+        return reportParser;
     }
 
-    private TestResult parseError(final Path file, final Element test, final Elements failed) {
-        @SuppressWarnings("DuplicatedCode")
-        final Element error = failed.first();
-        String message = "";
-        String detailMessage = "";
-        if (error != null) {
-            message = error.attr("message");
-            detailMessage = error.hasText() ? error.text() : "";
+    private void addTestResult(final TestResult result, final ResultStore results) {
+        if (!results.add(result) && verbose) {
+            print("@|red Did not add result: %s|@%n@|green Duplicate        : %s|@", result, results.find(result));
         }
-        return TestResult.error(file, test.attr("classname"), test.attr("name"), createTime(test.attr("time")), message, detailMessage);
     }
 
-    private void print() {
-        getWriter().println();
+    private synchronized void print() {
+        endLine();
     }
 
     private void print(final String fmt, final Object... args) {
@@ -518,20 +1061,69 @@ public class parsesurefire implements Callable<Integer> {
     }
 
     @SuppressWarnings("SameParameterValue")
-    private void print(final int padding, final Object message) {
-        final PrintWriter writer = getWriter();
-        if (padding > 0) {
-            writer.printf("%1$" + padding + "s", " ");
+    private synchronized void print(final int padding, final Object message) {
+        appendPadding(padding).append(message);
+        endLine();
+    }
+
+    private synchronized void print(final int padding, final String fmt, final Object... args) {
+        appendPadding(padding);
+        if (!getTemplate(fmt).render(line, args)) {
+            line.append(format(fmt, args));
+        }
+        endLine();
+    }
+
+    private StringBuilder appendPadding(final int padding) {
+        if (padding < PADDING.length) {
+            return line.append(PADDING[Math.max(padding, 0)]);
+        }
+        return line.append(" ".repeat(padding));
+    }
+
+    private void endLine() {
+        if (buffered) {
+            line.append(System.lineSeparator());
+            if (line.length() >= OUTPUT_BUFFER_SIZE) {
+                getWriter().append(line);
+                line.setLength(0);
+            }
+        } else {
+            getWriter().println(line);
+            line.setLength(0);
+        }
+    }
+
+    /**
+     * Prints the lines of the action into a buffer which is written in chunks rather than writing each line.
+     *
+     * @param action the action which prints the lines
+     */
+    private synchronized void printBuffered(final Runnable action) {
+        buffered = true;
+        try {
+            action.run();
+        } finally {
+            buffered = false;
+            if (line.length() > 0) {
+                getWriter().append(line);
+                line.setLength(0);
+            }
+            getWriter().flush();
         }
-        writer.println(message);
     }
 
-    private void print(final int padding, final String fmt, final Object... args) {
-        final PrintWriter writer = getWriter();
-        if (padding > 0) {
-            writer.printf("%1$" + padding + "s", " ");
+    private AnsiTemplate getTemplate(final String fmt) {
+        final AnsiTemplate template = templates.get(fmt);
+        if (template != null) {
+            return template;
         }
-        writer.println(format(fmt, args));
+        if (templates.size() >= MAX_TEMPLATES) {
+            return AnsiTemplate.UNSUPPORTED;
+        }
+        final AnsiTemplate compiled = AnsiTemplate.compile(getAnsi(), fmt);
+        templates.put(fmt, compiled);
+        return compiled;
     }
 
     private PrintWriter getWriter() {
@@ -556,10 +1148,14 @@ public class parsesurefire implements Callable<Integer> {
     }
 
     private String format(final String fmt, final Object... args) {
+        return format(getAnsi(), String.format(fmt, args));
+    }
+
+    private CommandLine.Help.Ansi getAnsi() {
         if (ansi == null) {
             ansi = batch || output != null ? CommandLine.Help.Ansi.OFF : spec.commandLine().getColorScheme().ansi();
         }
-        return format(ansi, String.format(fmt, args));
+        return ansi;
     }
 
     private String format(final CommandLine.Help.Ansi ansi, final String value) {
@@ -619,46 +1215,244 @@ public class parsesurefire implements Callable<Integer> {
         return result.toString();
     }
 
-    private BigDecimal createTime(final String time) {
+    /**
+     * Parses the time, in seconds, into microseconds.
+     *
+     * @param time the time in seconds
+     *
+     * @return the time in microseconds
+     */
+    private long createTime(final String time) {
         if (time.isBlank()) {
-            return new BigDecimal("0.000");
+            return 0L;
         }
-        try {
-            final var n = NumberFormat.getNumberInstance().parse(time);
-            return new BigDecimal(n.toString()).setScale(3, RoundingMode.HALF_UP);
-        } catch (Exception e) {
+        final long micros = parseMicros(time);
+        if (micros == INVALID_TIME) {
             spec.commandLine().getErr().printf("Failed to parse the time %s. Default to 0.000.%n", time);
-            return new BigDecimal("0.000");
+            return 0L;
         }
+        return micros;
     }
 
-    private static String toHumanReadable(final Duration duration) {
-        final long days = duration.toDaysPart();
-        final long hours = duration.toHoursPart();
-        final long minutes = duration.toMinutesPart();
-        final long seconds = duration.toSecondsPart();
-        final long millis = duration.toMillisPart();
-
-        if (days > 0) {
-            return String.format("%dd, %02dh, %02dm, %02ds, %03dms", days, hours, minutes, seconds, millis);
+    /**
+     * Parses a time in seconds into microseconds. Both {@code 1234.5} and {@code 1,234.5} forms are accepted, a comma
+     * before the decimal point is treated as a grouping separator. An exponent such as {@code 2.5E2}, {@code 1.5e-4} or
+     * {@code 2.5E+2} is accepted. Any trailing characters after the number are ignored. Plain values with at most six significant
+     * fraction digits are parsed without allocating, other values are rounded from their exact digits.
+     *
+     * @param value the value to parse
+     *
+     * @return the time in microseconds or {@link #INVALID_TIME} if the value does not start with a number or does not
+     * fit in microseconds
+     */
+    static long parseMicros(final CharSequence value) {
+        final int len = value.length();
+        int i = 0;
+        while (i < len && Character.isWhitespace(value.charAt(i))) {
+            i++;
         }
-
-        if (hours > 0) {
-            return String.format("%02dh, %02dm, %02ds, %03dms", hours, minutes, seconds, millis);
+        final int start = i;
+        boolean negative = false;
+        if (i < len && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+            negative = value.charAt(i) == '-';
+            i++;
         }
-        return String.format("%02dm, %02ds, %03dms", minutes, seconds, millis);
-    }
-
-    private enum ReportType {
-        detail,
-        summary,
-        total() {
-            @Override
-            boolean printDetail() {
-                return false;
+        long seconds = 0L;
+        boolean digits = false;
+        // Cleared if the value cannot be computed exactly with a long
+        boolean plain = true;
+        for (; i < len; i++) {
+            final char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (seconds < MAX_PLAIN_SECONDS) {
+                    seconds = seconds * 10 + (c - '0');
+                } else {
+                    plain = false;
+                }
+                digits = true;
+            } else if (c != ',' || !digits) {
+                break;
             }
-        };
-
+        }
+        long micros = 0L;
+        if (i < len && value.charAt(i) == '.') {
+            i++;
+            int scale = 0;
+            for (; i < len; i++) {
+                final char c = value.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                digits = true;
+                if (scale < 6) {
+                    micros = micros * 10 + (c - '0');
+                } else if (c != '0') {
+                    plain = false;
+                }
+                scale++;
+            }
+            for (; scale < 6; scale++) {
+                micros *= 10;
+            }
+        }
+        if (!digits) {
+            return INVALID_TIME;
+        }
+        // The exponent is only part of the number if it has digits, e.g. the E in 1.5Ex is ignored
+        if (i < len && (value.charAt(i) == 'E' || value.charAt(i) == 'e')) {
+            int exponent = i + 1;
+            if (exponent < len && (value.charAt(exponent) == '-' || value.charAt(exponent) == '+')) {
+                exponent++;
+            }
+            if (exponent < len && value.charAt(exponent) >= '0' && value.charAt(exponent) <= '9') {
+                i = exponent;
+                while (i < len && value.charAt(i) >= '0' && value.charAt(i) <= '9') {
+                    i++;
+                }
+                plain = false;
+            }
+        }
+        if (!plain) {
+            return parseExactMicros(value, start, i);
+        }
+        final long result = (seconds * 1_000_000L) + micros;
+        return negative ? -result : result;
+    }
+
+    private static long parseExactMicros(final CharSequence value, final int start, final int end) {
+        final StringBuilder number = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            if (value.charAt(i) != ',') {
+                number.append(value.charAt(i));
+            }
+        }
+        try {
+            final BigDecimal seconds = new BigDecimal(number.toString());
+            // Reject values which cannot fit before scaling so a large exponent does not expand into a huge number
+            if (seconds.precision() - seconds.scale() > 19) {
+                return INVALID_TIME;
+            }
+            final BigDecimal rounded = seconds.setScale(6, RoundingMode.HALF_UP);
+            long micros = rounded.movePointRight(6).longValueExact();
+            // The time is rounded again to milliseconds when formatted. A value rounded up onto a half millisecond,
+            // e.g. 0.0004995, would then round up twice, so it is kept just below the half instead.
+            if (Math.abs(micros) % 1000L == 500L && rounded.abs().compareTo(seconds.abs()) > 0) {
+                micros -= Long.signum(micros);
+            }
+            return micros;
+        } catch (NumberFormatException | ArithmeticException e) {
+            return INVALID_TIME;
+        }
+    }
+
+    /**
+     * Rounds the microseconds half-up to milliseconds.
+     *
+     * @param micros the time in microseconds
+     *
+     * @return the time in milliseconds
+     */
+    static long toMillis(final long micros) {
+        final long abs = Math.abs(micros);
+        final long millis = abs / 1000L + (abs % 1000L >= 500L ? 1L : 0L);
+        return micros < 0 ? -millis : millis;
+    }
+
+    /**
+     * Formats the microseconds as seconds with three decimal places, e.g. {@code 1234.500}.
+     *
+     * @param micros the time in microseconds
+     *
+     * @return the formatted time
+     */
+    static String formatTime(final long micros) {
+        return formatMillis(toMillis(micros));
+    }
+
+    private static String formatMillis(final long millis) {
+        final long abs = Math.abs(millis);
+        final long fraction = abs % 1000L;
+        final StringBuilder result = new StringBuilder(16);
+        if (millis < 0) {
+            result.append('-');
+        }
+        result.append(abs / 1000L).append('.');
+        if (fraction < 100) {
+            result.append('0');
+        }
+        if (fraction < 10) {
+            result.append('0');
+        }
+        return result.append(fraction).toString();
+    }
+
+    /**
+     * Skips the current element including all of its children.
+     *
+     * @param reader the reader positioned on the start of the element
+     *
+     * @throws XMLStreamException if reading the element fails
+     */
+    private static void skipElement(final XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Returns the severity of the status used to pick a single status for a test found more than once. An error is
+     * the most severe and a skipped test the least.
+     *
+     * @param status the status
+     *
+     * @return the severity
+     */
+    private static int severity(final Status status) {
+        switch (status) {
+            case ERROR:
+                return 3;
+            case FAILED:
+                return 2;
+            case PASSED:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    private static String toHumanReadable(final Duration duration) {
+        final long days = duration.toDaysPart();
+        final long hours = duration.toHoursPart();
+        final long minutes = duration.toMinutesPart();
+        final long seconds = duration.toSecondsPart();
+        final long millis = duration.toMillisPart();
+
+        if (days > 0) {
+            return String.format("%dd, %02dh, %02dm, %02ds, %03dms", days, hours, minutes, seconds, millis);
+        }
+
+        if (hours > 0) {
+            return String.format("%02dh, %02dm, %02ds, %03dms", hours, minutes, seconds, millis);
+        }
+        return String.format("%02dm, %02ds, %03dms", minutes, seconds, millis);
+    }
+
+    private enum ReportType {
+        detail,
+        summary,
+        total() {
+            @Override
+            boolean printDetail() {
+                return false;
+            }
+        };
+
         boolean printDetail() {
             return true;
         }
@@ -671,52 +1465,6468 @@ public class parsesurefire implements Callable<Integer> {
         SKIPPED
     }
 
+    private enum ParserEngine {
+        stax,
+        mapped,
+        jsoup
+    }
+
+    private enum OutputFormat {
+        text,
+        ndjson,
+        json,
+        csv
+    }
+
+    private enum DiffFormat {
+        text,
+        json
+    }
+
+    private enum ShardFormat {
+        text,
+        includes
+    }
+
+    private enum HistogramFormat {
+        table,
+        json
+    }
+
     private enum SortBy {
         status,
         name,
         time
     }
 
-    private static class TestResult implements Comparable<TestResult> {
-        private final Path file;
-        private final Status status;
-        private final String title;
+    /**
+     * Generates synthetic surefire reports for benchmarking and scale testing. The output is deterministic for a
+     * seed, including the archive entry timestamps, so the same reports can be generated on any machine.
+     */
+    @Command(name = "generate", description = "Generates synthetic surefire reports for scale testing.",
+            showDefaultValues = true)
+    static class GenerateCommand implements Callable<Integer> {
+        // The entry timestamp used in archives so the output does not depend on when it was generated
+        private static final LocalDateTime ENTRY_TIME = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+        @Parameters(arity = "1", description = "The directory to write the reports to. If the name ends with .zip, .tar, .tar.gz or .tgz an archive is written instead.")
+        private Path target;
+
+        @Option(names = {"-m", "--modules"}, description = "The number of modules.", defaultValue = "10")
+        private int modules;
+
+        @Option(names = {"-c", "--classes"}, description = "The number of test classes, one report each, per module.", defaultValue = "20")
+        private int classes;
+
+        @Option(names = {"-k", "--tests"}, description = "The number of test cases per test class.", defaultValue = "20")
+        private int tests;
+
+        @Option(names = {"--failure-rate"}, description = "The percentage of test cases which fail.", defaultValue = "5")
+        private double failureRate;
+
+        @Option(names = {"--error-rate"}, description = "The percentage of test cases which error.", defaultValue = "2")
+        private double errorRate;
+
+        @Option(names = {"--skip-rate"}, description = "The percentage of test cases which are skipped.", defaultValue = "5")
+        private double skipRate;
+
+        @Option(names = {"--duplicate-rate"}, description = "The percentage of test cases which are written twice, as a re-run would.", defaultValue = "0")
+        private double duplicateRate;
+
+        @Option(names = {"--stack-depth"}, description = "The number of frames in the stack trace of a failure or an error.", defaultValue = "30")
+        private int stackDepth;
+
+        @Option(names = {"--system-out"}, description = "The number of lines written to system-out for each test case.", defaultValue = "10")
+        private int systemOutLines;
+
+        @Option(names = {"--seed"}, description = "The seed for the random generator.", defaultValue = "42")
+        private long seed;
+
+        @SuppressWarnings("unused")
+        @Option(names = {"-h", "--help"}, usageHelp = true, description = "Display this help message")
+        private boolean usageHelpRequested;
+
+        @Spec
+        private CommandSpec spec;
+
+        @Override
+        public Integer call() throws Exception {
+            validate();
+            final Random random = new Random(seed);
+            final Instant start = Instant.now();
+            int total = 0;
+            try (ReportSink sink = ReportSink.of(target)) {
+                for (int m = 0; m < modules; m++) {
+                    for (int c = 0; c < classes; c++) {
+                        final String className = String.format("org.acme.m%d.Test%d", m, c);
+                        final String path = String.format("module%d/target/surefire-reports/TEST-%s.xml", m, className);
+                        final StringBuilder report = new StringBuilder(tests * 512);
+                        total += writeReport(report, className, random);
+                        sink.write(path, report.toString().getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+            }
+            spec.commandLine().getOut().printf("Generated %d reports with %d tests in %s in %s%n", modules * classes, total,
+                    target, toHumanReadable(Duration.between(start, Instant.now())));
+            return 0;
+        }
+
+        private void validate() {
+            if (modules < 1 || classes < 1 || tests < 0 || stackDepth < 0 || systemOutLines < 0) {
+                throw new CommandLine.ParameterException(spec.commandLine(),
+                        "The modules and classes must be at least 1 and the tests, stack depth and system-out lines cannot be negative.");
+            }
+            for (double rate : new double[] {failureRate, errorRate, skipRate, duplicateRate}) {
+                if (rate < 0 || rate > 100) {
+                    throw new CommandLine.ParameterException(spec.commandLine(), "A rate must be a percentage between 0 and 100.");
+                }
+            }
+            if (failureRate + errorRate + skipRate > 100) {
+                throw new CommandLine.ParameterException(spec.commandLine(), "The failure, error and skip rates cannot exceed 100% combined.");
+            }
+        }
+
+        private int writeReport(final StringBuilder report, final String className, final Random random) {
+            final StringBuilder testCases = new StringBuilder(tests * 512);
+            int count = 0;
+            int failures = 0;
+            int errors = 0;
+            int skipped = 0;
+            long totalTime = 0;
+            for (int i = 0; i < tests; i++) {
+                final double outcome = random.nextDouble() * 100;
+                final Status status;
+                if (outcome < failureRate) {
+                    status = Status.FAILED;
+                } else if (outcome < failureRate + errorRate) {
+                    status = Status.ERROR;
+                } else if (outcome < failureRate + errorRate + skipRate) {
+                    status = Status.SKIPPED;
+                } else {
+                    status = Status.PASSED;
+                }
+                final int runs = random.nextDouble() * 100 < duplicateRate ? 2 : 1;
+                for (int run = 0; run < runs; run++) {
+                    // Skipped tests are not run so they have no time
+                    final long time = status == Status.SKIPPED ? 0L : random.nextInt(2_000_000);
+                    totalTime += time;
+                    count++;
+                    switch (status) {
+                        case FAILED:
+                            failures++;
+                            break;
+                        case ERROR:
+                            errors++;
+                            break;
+                        case SKIPPED:
+                            skipped++;
+                            break;
+                    }
+                    writeTestCase(testCases, className, "test" + i, time, status, random);
+                }
+            }
+            report.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                    .append("<testsuite xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" name=\"").append(className)
+                    .append("\" time=\"").append(formatTime(totalTime))
+                    .append("\" tests=\"").append(count)
+                    .append("\" errors=\"").append(errors)
+                    .append("\" skipped=\"").append(skipped)
+                    .append("\" failures=\"").append(failures).append("\">\n")
+                    .append("  <properties>\n")
+                    .append("    <property name=\"java.version\" value=\"").append(Runtime.version().feature()).append("\"/>\n")
+                    .append("    <property name=\"file.encoding\" value=\"UTF-8\"/>\n")
+                    .append("  </properties>\n")
+                    .append(testCases)
+                    .append("</testsuite>\n");
+            return count;
+        }
+
+        private void writeTestCase(final StringBuilder report, final String className, final String testName,
+                                   final long time, final Status status, final Random random) {
+            report.append("  <testcase name=\"").append(testName)
+                    .append("\" classname=\"").append(className)
+                    .append("\" time=\"").append(formatTime(time)).append("\"");
+            if (status == Status.PASSED && systemOutLines == 0) {
+                report.append("/>\n");
+                return;
+            }
+            report.append(">\n");
+            switch (status) {
+                case FAILED: {
+                    final int expected = random.nextInt(100);
+                    report.append("    <failure message=\"expected: &lt;").append(expected).append("&gt; but was: &lt;")
+                            .append(expected + 1).append("&gt;\" type=\"org.opentest4j.AssertionFailedError\">");
+                    writeStackTrace(report, "org.opentest4j.AssertionFailedError", className, testName);
+                    report.append("</failure>\n");
+                    break;
+                }
+                case ERROR: {
+                    report.append("    <error message=\"Unexpected state in ").append(testName)
+                            .append("\" type=\"java.lang.IllegalStateException\">");
+                    writeStackTrace(report, "java.lang.IllegalStateException", className, testName);
+                    report.append("</error>\n");
+                    break;
+                }
+                case SKIPPED: {
+                    report.append("    <skipped message=\"Disabled for ").append(testName).append("\"/>\n");
+                    break;
+                }
+            }
+            if (systemOutLines > 0) {
+                report.append("    <system-out><![CDATA[");
+                for (int line = 0; line < systemOutLines; line++) {
+                    report.append("INFO  [").append(className).append("] (main) ").append(testName)
+                            .append(" step ").append(line).append(": ").append(Long.toHexString(random.nextLong())).append('\n');
+                }
+                report.append("]]></system-out>\n");
+            }
+            report.append("  </testcase>\n");
+        }
+
+        private void writeStackTrace(final StringBuilder report, final String exception, final String className, final String testName) {
+            report.append(exception).append(": ").append(testName).append(" failed");
+            final String simpleName = className.substring(className.lastIndexOf('.') + 1);
+            for (int frame = 0; frame < stackDepth; frame++) {
+                report.append("\n\tat ").append(className).append('.').append(frame == 0 ? testName : "helper" + frame)
+                        .append('(').append(simpleName).append(".java:").append(20 + frame).append(')');
+            }
+            report.append('\n');
+        }
+    }
+
+    /**
+     * The destination of the generated reports.
+     */
+    private interface ReportSink extends Closeable {
+
+        /**
+         * Creates the sink for the target. The type of archive, if any, is determined by the file name.
+         *
+         * @param target the target directory or archive
+         *
+         * @return the sink
+         *
+         * @throws IOException if the target cannot be created
+         */
+        static ReportSink of(final Path target) throws IOException {
+            final String name = target.getFileName().toString().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".zip")) {
+                final ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(createParent(target))));
+                return new ReportSink() {
+                    @Override
+                    public void write(final String path, final byte[] content) throws IOException {
+                        final ZipEntry entry = new ZipEntry(path);
+                        entry.setTimeLocal(GenerateCommand.ENTRY_TIME);
+                        out.putNextEntry(entry);
+                        out.write(content);
+                        out.closeEntry();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        out.close();
+                    }
+                };
+            }
+            if (name.endsWith(".tar") || name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+                final OutputStream file = new BufferedOutputStream(Files.newOutputStream(createParent(target)));
+                final TarArchiveOutputStream out = new TarArchiveOutputStream(name.endsWith(".tar") ? file : new GzipCompressorOutputStream(file));
+                out.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+                final long modTime = GenerateCommand.ENTRY_TIME.toInstant(ZoneOffset.UTC).toEpochMilli();
+                return new ReportSink() {
+                    @Override
+                    public void write(final String path, final byte[] content) throws IOException {
+                        final TarArchiveEntry entry = new TarArchiveEntry(path);
+                        entry.setModTime(modTime);
+                        entry.setSize(content.length);
+                        out.putArchiveEntry(entry);
+                        out.write(content);
+                        out.closeArchiveEntry();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        out.close();
+                    }
+                };
+            }
+            Files.createDirectories(target);
+            return new ReportSink() {
+                @Override
+                public void write(final String path, final byte[] content) throws IOException {
+                    final Path file = target.resolve(path);
+                    Files.createDirectories(file.getParent());
+                    Files.write(file, content);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        private static Path createParent(final Path file) throws IOException {
+            final Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            return file;
+        }
+
+        /**
+         * Writes the report.
+         *
+         * @param path    the relative path of the report
+         * @param content the content of the report
+         *
+         * @throws IOException if writing the report fails
+         */
+        void write(String path, byte[] content) throws IOException;
+    }
+
+    /**
+     * Compares the results of a baseline report set with a candidate report set. The tests are joined on the class
+     * and test name. If a test is found more than once on a side, the worst status is used.
+     * <p>
+     * Each side is parsed into a {@link ResultStore}. Once more tests than the spill threshold are held in memory, the
+     * tests are written to partition files by the hash of the class and test name. The partitions of both sides are
+     * then joined one at a time, so only a single partition needs to fit into memory.
+     * </p>
+     */
+    @Command(name = "diff", description = "Compares the results of a baseline and a candidate report set.",
+            showDefaultValues = true)
+    static class DiffCommand implements Callable<Integer> {
+
+        @Parameters(index = "0", description = "The baseline surefire XML report, directory or archive.")
+        private Path baseline;
+
+        @Parameters(index = "1", description = "The candidate surefire XML report, directory or archive.")
+        private Path candidate;
+
+        @Option(names = {"--format"}, description = "The output format. The options are ${COMPLETION-CANDIDATES}. The json format prints a single JSON object.",
+                defaultValue = "text")
+        private DiffFormat format;
+
+        @Option(names = {"--spill-after"}, description = "The number of tests of a side held in memory before the tests are written to temporary partition files.",
+                defaultValue = "500000", paramLabel = "N")
+        private int spillAfter;
+
+        @Option(names = {"--top"}, description = "The number of the largest duration changes to print.", defaultValue = "10", paramLabel = "N")
+        private int top;
+
+        @SuppressWarnings("unused")
+        @Option(names = {"-h", "--help"}, usageHelp = true, description = "Display this help message")
+        private boolean usageHelpRequested;
+
+        @ParentCommand
+        private parsesurefire parent;
+
+        @Spec
+        private CommandSpec spec;
+
+        @Override
+        public Integer call() throws Exception {
+            if (spillAfter < 1 || top < 0) {
+                throw new CommandLine.ParameterException(spec.commandLine(), "The --spill-after value must be greater than 0 and the --top value cannot be negative.");
+            }
+            final Instant start = Instant.now();
+            try (DiffSpill baselineSpill = new DiffSpill(); DiffSpill candidateSpill = new DiffSpill()) {
+                ResultStore baselineResults = parse(baseline, baselineSpill);
+                ResultStore candidateResults = parse(candidate, candidateSpill);
+                final DiffResult result = new DiffResult(top);
+                if (baselineSpill.isEmpty() && candidateSpill.isEmpty()) {
+                    result.join(DiffEntry.of(baselineResults), DiffEntry.of(candidateResults));
+                } else {
+                    // Both sides need to be partitioned the same way to join the partitions
+                    baselineSpill.write(baselineResults);
+                    candidateSpill.write(candidateResults);
+                    baselineResults = null;
+                    candidateResults = null;
+                    for (int partition = 0; partition < DiffSpill.PARTITIONS; partition++) {
+                        result.join(baselineSpill.read(partition), candidateSpill.read(partition));
+                    }
+                }
+                result.sort();
+                if (format == DiffFormat.json) {
+                    printJson(result);
+                } else {
+                    printText(result);
+                }
+            } finally {
+                if (parent.verbose) {
+                    spec.commandLine()
+                            .getOut()
+                            .println(parent.format("@|bold Completed in %s|@", toHumanReadable(Duration.between(start, Instant.now()))));
+                }
+                if (parent.writer != null && parent.output != null) {
+                    parent.writer.close();
+                }
+            }
+            return 0;
+        }
+
+        private ResultStore parse(final Path file, final DiffSpill spill) throws IOException, InterruptedException {
+            final AtomicLong inMemory = new AtomicLong();
+            final Map<Path, ResultStore> grouped = parent.parseFile(file, ResultStore::new, (source, results) -> {
+                final int size = results.size();
+                parent.parseResults(source, results);
+                if (inMemory.addAndGet(results.size() - size) > spillAfter) {
+                    try {
+                        spill.write(results);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    inMemory.addAndGet(-results.size());
+                    results.clear();
+                }
+            }, ResultStore::addAll);
+            final ResultStore results = new ResultStore();
+            for (ResultStore group : grouped.values()) {
+                results.addAll(group);
+            }
+            return results;
+        }
+
+        private void printText(final DiffResult result) {
+            parent.print("@|bold Baseline: %s|@", baseline);
+            parent.printSummary(formatTotal(result.baselineCounts));
+            parent.print("@|bold Candidate: %s|@", candidate);
+            parent.printSummary(formatTotal(result.candidateCounts));
+            parent.print();
+            printChanges("Newly Failing Tests", result.newlyFailing);
+            printChanges("Newly Passing Tests", result.newlyPassing);
+            printEntries("Removed Tests", result.removed);
+            printEntries("Added Tests", result.added);
+            final List<DiffChange> changes = result.durationChanges();
+            parent.print("@|bold,white Largest Duration Changes: %d|@", changes.size());
+            for (DiffChange change : changes) {
+                final long delta = toMillis(change.candidate.time) - toMillis(change.baseline.time);
+                parent.print(4, "@|bold,cyan %s.%s|@ @|bold,white %s -> %s|@ @|%s (%s%s)|@", change.candidate.className,
+                        change.candidate.testName, formatTime(change.baseline.time), formatTime(change.candidate.time),
+                        delta > 0 ? "red" : "green", delta > 0 ? "+" : "", formatMillis(delta));
+            }
+            parent.print();
+        }
+
+        private String formatTotal(final int[] counts) {
+            return parent.formatTotal(Arrays.stream(counts).sum(), counts[Status.PASSED.ordinal()], counts[Status.FAILED.ordinal()],
+                    counts[Status.ERROR.ordinal()], counts[Status.SKIPPED.ordinal()]);
+        }
+
+        private void printChanges(final String title, final List<DiffChange> changes) {
+            parent.print("@|bold,white %s: %d|@", title, changes.size());
+            for (DiffChange change : changes) {
+                final String message = change.candidate.message;
+                parent.print(4, "@|bold,cyan %s.%s|@ [@|%s %s|@ -> @|%s %s|@]%s", change.candidate.className, change.candidate.testName,
+                        parent.getStatusColor(change.baseline.status), change.baseline.status,
+                        parent.getStatusColor(change.candidate.status), change.candidate.status,
+                        message == null || message.isBlank() ? "" : " - " + message);
+            }
+            parent.print();
+        }
+
+        private void printEntries(final String title, final List<DiffEntry> entries) {
+            parent.print("@|bold,white %s: %d|@", title, entries.size());
+            for (DiffEntry entry : entries) {
+                parent.print(4, "@|bold,cyan %s.%s|@ [@|%s %s|@]", entry.className, entry.testName,
+                        parent.getStatusColor(entry.status), entry.status);
+            }
+            parent.print();
+        }
+
+        private void printJson(final DiffResult result) {
+            final StringBuilder json = new StringBuilder();
+            json.append("{\"baseline\":");
+            appendJsonSide(json, baseline, result.baselineCounts);
+            json.append(",\"candidate\":");
+            appendJsonSide(json, candidate, result.candidateCounts);
+            json.append(",\"newlyFailing\":");
+            appendJsonChanges(json, result.newlyFailing);
+            json.append(",\"newlyPassing\":");
+            appendJsonChanges(json, result.newlyPassing);
+            json.append(",\"removed\":");
+            appendJsonEntries(json, result.removed);
+            json.append(",\"added\":");
+            appendJsonEntries(json, result.added);
+            json.append(",\"durationChanges\":[");
+            final List<DiffChange> changes = result.durationChanges();
+            for (int i = 0; i < changes.size(); i++) {
+                final DiffChange change = changes.get(i);
+                json.append(i == 0 ? "{" : ",{");
+                appendJsonName(json, change.candidate);
+                json.append(",\"baselineTime\":").append(formatTime(change.baseline.time))
+                        .append(",\"time\":").append(formatTime(change.candidate.time))
+                        .append(",\"delta\":").append(formatMillis(toMillis(change.candidate.time) - toMillis(change.baseline.time)))
+                        .append('}');
+            }
+            json.append("]}");
+            parent.getWriter().println(json);
+        }
+
+        private static void appendJsonSide(final StringBuilder json, final Path path, final int[] counts) {
+            json.append("{\"path\":");
+            appendJsonString(json, path.toString());
+            json.append(",\"total\":").append(Arrays.stream(counts).sum());
+            for (Status status : Status.values()) {
+                json.append(",\"").append(status.name().toLowerCase(Locale.ROOT)).append("\":").append(counts[status.ordinal()]);
+            }
+            json.append('}');
+        }
+
+        private static void appendJsonChanges(final StringBuilder json, final List<DiffChange> changes) {
+            json.append('[');
+            for (int i = 0; i < changes.size(); i++) {
+                final DiffChange change = changes.get(i);
+                json.append(i == 0 ? "{" : ",{");
+                appendJsonName(json, change.candidate);
+                json.append(",\"baselineStatus\":\"").append(change.baseline.status)
+                        .append("\",\"status\":\"").append(change.candidate.status).append('"');
+                if (change.candidate.message != null) {
+                    json.append(",\"message\":");
+                    appendJsonString(json, change.candidate.message);
+                }
+                json.append('}');
+            }
+            json.append(']');
+        }
+
+        private static void appendJsonEntries(final StringBuilder json, final List<DiffEntry> entries) {
+            json.append('[');
+            for (int i = 0; i < entries.size(); i++) {
+                final DiffEntry entry = entries.get(i);
+                json.append(i == 0 ? "{" : ",{");
+                appendJsonName(json, entry);
+                json.append(",\"status\":\"").append(entry.status).append("\"}");
+            }
+            json.append(']');
+        }
+
+        private static void appendJsonName(final StringBuilder json, final DiffEntry entry) {
+            json.append("\"className\":");
+            appendJsonString(json, entry.className);
+            json.append(",\"testName\":");
+            appendJsonString(json, entry.testName);
+        }
+    }
+
+    /**
+     * A test on one side of a diff. Entries are equal if the class and test name are equal, the status is not part of
+     * the identity.
+     */
+    private static class DiffEntry implements Comparable<DiffEntry> {
         private final String className;
         private final String testName;
-        private final BigDecimal time;
+        private final Status status;
+        // The time in microseconds
+        private final long time;
         private final String message;
-        private final String detailMessage;
 
-        private TestResult(final Path file, final Status status, final String className, final String testName,
-                           final BigDecimal time, final String message, final String detailMessage) {
+        private DiffEntry(final String className, final String testName, final Status status, final long time, final String message) {
+            this.className = className;
+            this.testName = testName;
+            this.status = status;
+            this.time = time;
+            this.message = message;
+        }
+
+        /**
+         * Creates the entries for all the rows in the store.
+         *
+         * @param results the results
+         *
+         * @return the entries mapped to themselves
+         */
+        static Map<DiffEntry, DiffEntry> of(final ResultStore results) {
+            final Map<DiffEntry, DiffEntry> entries = new HashMap<>(Math.max(16, results.size() * 4 / 3 + 1));
+            for (int row = 0; row < results.size(); row++) {
+                final TestResult result = results.get(row);
+                put(entries, new DiffEntry(result.className, result.testName, result.status, result.time, result.message));
+            }
+            return entries;
+        }
+
+        /**
+         * Adds the entry, if the test is already present the entry with the worst status is kept.
+         *
+         * @param entries the entries to add to
+         * @param entry   the entry to add
+         */
+        static void put(final Map<DiffEntry, DiffEntry> entries, final DiffEntry entry) {
+            entries.merge(entry, entry, (current, value) -> severity(value.status) > severity(current.status) ? value : current);
+        }
+
+        static boolean isFailure(final Status status) {
+            return status == Status.FAILED || status == Status.ERROR;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(className, testName);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof DiffEntry)) {
+                return false;
+            }
+            final DiffEntry other = (DiffEntry) obj;
+            return Objects.equals(className, other.className)
+                    && Objects.equals(testName, other.testName);
+        }
+
+        @Override
+        public int compareTo(final DiffEntry o) {
+            final int result = className.compareTo(o.className);
+            return result == 0 ? testName.compareTo(o.testName) : result;
+        }
+    }
+
+    /**
+     * A test found on both sides of a diff.
+     */
+    private static class DiffChange {
+        private final DiffEntry baseline;
+        private final DiffEntry candidate;
+
+        private DiffChange(final DiffEntry baseline, final DiffEntry candidate) {
+            this.baseline = baseline;
+            this.candidate = candidate;
+        }
+
+        long delta() {
+            return Math.abs(toMillis(candidate.time) - toMillis(baseline.time));
+        }
+    }
+
+    /**
+     * The result of joining the two sides of a diff. The sides can be joined in partitions.
+     */
+    private static class DiffResult {
+        private static final Comparator<DiffChange> BY_NAME = Comparator.comparing(change -> change.candidate);
+        // The smallest change is at the head so it is the first to be removed
+        private static final Comparator<DiffChange> BY_DELTA = Comparator.comparingLong(DiffChange::delta)
+                .thenComparing(BY_NAME.reversed());
+
+        private final int[] baselineCounts = new int[Status.values().length];
+        private final int[] candidateCounts = new int[Status.values().length];
+        private final List<DiffChange> newlyFailing = new ArrayList<>();
+        private final List<DiffChange> newlyPassing = new ArrayList<>();
+        private final List<DiffEntry> removed = new ArrayList<>();
+        private final List<DiffEntry> added = new ArrayList<>();
+        private final PriorityQueue<DiffChange> durationChanges = new PriorityQueue<>(BY_DELTA);
+        private final int top;
+
+        private DiffResult(final int top) {
+            this.top = top;
+        }
+
+        /**
+         * Joins the entries of the baseline and candidate. Both maps must contain the same partition of tests.
+         *
+         * @param baseline  the baseline entries
+         * @param candidate the candidate entries
+         */
+        void join(final Map<DiffEntry, DiffEntry> baseline, final Map<DiffEntry, DiffEntry> candidate) {
+            for (DiffEntry entry : baseline.values()) {
+                baselineCounts[entry.status.ordinal()]++;
+                final DiffEntry current = candidate.get(entry);
+                if (current == null) {
+                    removed.add(entry);
+                    continue;
+                }
+                final DiffChange change = new DiffChange(entry, current);
+                if (DiffEntry.isFailure(current.status) && !DiffEntry.isFailure(entry.status)) {
+                    newlyFailing.add(change);
+                } else if (DiffEntry.isFailure(entry.status) && current.status == Status.PASSED) {
+                    newlyPassing.add(change);
+                }
+                if (top > 0 && entry.status != Status.SKIPPED && current.status != Status.SKIPPED && change.delta() > 0) {
+                    durationChanges.offer(change);
+                    if (durationChanges.size() > top) {
+                        durationChanges.poll();
+                    }
+                }
+            }
+            for (DiffEntry entry : candidate.values()) {
+                candidateCounts[entry.status.ordinal()]++;
+                if (!baseline.containsKey(entry)) {
+                    added.add(entry);
+                }
+            }
+        }
+
+        /**
+         * Returns the largest duration changes.
+         *
+         * @return the changes ordered from the largest
+         */
+        List<DiffChange> durationChanges() {
+            final List<DiffChange> result = new ArrayList<>(durationChanges);
+            result.sort(BY_DELTA.reversed());
+            return result;
+        }
+
+        /**
+         * Sorts the tests by name once all the partitions have been joined.
+         */
+        void sort() {
+            newlyFailing.sort(BY_NAME);
+            newlyPassing.sort(BY_NAME);
+            removed.sort(Comparator.naturalOrder());
+            added.sort(Comparator.naturalOrder());
+        }
+    }
+
+    /**
+     * The tests of one side of a diff written to partition files by the hash of the class and test name.
+     */
+    private static class DiffSpill implements Closeable {
+        static final int PARTITIONS = 64;
+
+        private Path dir;
+        private DataOutputStream[] partitions;
+
+        /**
+         * Writes all the rows of the store to the partition files.
+         *
+         * @param results the results to write
+         *
+         * @throws IOException if writing fails
+         */
+        synchronized void write(final ResultStore results) throws IOException {
+            if (results.size() == 0) {
+                return;
+            }
+            if (dir == null) {
+                dir = Files.createTempDirectory("parsesurefire-diff");
+                partitions = new DataOutputStream[PARTITIONS];
+            }
+            for (int row = 0; row < results.size(); row++) {
+                final TestResult result = results.get(row);
+                final int partition = Math.floorMod(Objects.hash(result.className, result.testName), PARTITIONS);
+                DataOutputStream out = partitions[partition];
+                if (out == null) {
+                    out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file(partition))));
+                    partitions[partition] = out;
+                }
+                ParseCache.writeString(out, result.className);
+                ParseCache.writeString(out, result.testName);
+                out.writeByte(result.status.ordinal());
+                out.writeLong(result.time);
+                out.writeBoolean(result.message != null);
+                if (result.message != null) {
+                    ParseCache.writeString(out, result.message);
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return dir == null;
+        }
+
+        /**
+         * Reads the entries of the partition. Once a partition has been read, no more rows can be written.
+         *
+         * @param partition the partition to read
+         *
+         * @return the entries mapped to themselves
+         *
+         * @throws IOException if reading fails
+         */
+        synchronized Map<DiffEntry, DiffEntry> read(final int partition) throws IOException {
+            final Map<DiffEntry, DiffEntry> entries = new HashMap<>();
+            if (dir == null) {
+                return entries;
+            }
+            closePartitions();
+            final Path file = file(partition);
+            if (Files.notExists(file)) {
+                return entries;
+            }
+            final Status[] statuses = Status.values();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                while (true) {
+                    final String className;
+                    try {
+                        className = ParseCache.readString(in);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    final String testName = ParseCache.readString(in);
+                    final Status status = statuses[in.readByte()];
+                    final long time = in.readLong();
+                    final String message = in.readBoolean() ? ParseCache.readString(in) : null;
+                    DiffEntry.put(entries, new DiffEntry(className, testName, status, time, message));
+                }
+            }
+            return entries;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (dir == null) {
+                return;
+            }
+            closePartitions();
+            for (int partition = 0; partition < PARTITIONS; partition++) {
+                Files.deleteIfExists(file(partition));
+            }
+            Files.deleteIfExists(dir);
+        }
+
+        private void closePartitions() throws IOException {
+            for (int partition = 0; partition < PARTITIONS; partition++) {
+                if (partitions[partition] != null) {
+                    partitions[partition].close();
+                    partitions[partition] = null;
+                }
+            }
+        }
+
+        private Path file(final int partition) {
+            return dir.resolve("partition-" + partition);
+        }
+    }
+
+    /**
+     * Queries the test results recorded with {@code --record}. Only the most recent runs are queried, the runs are
+     * read from memory-mapped segments of the log.
+     */
+    @Command(name = "history", description = "Queries the flakiness, duration trend and failures of the test results recorded with --record.",
+            showDefaultValues = true)
+    static class HistoryCommand implements Callable<Integer> {
+
+        @Parameters(arity = "1", description = "The directory of the history store.")
+        private Path store;
+
+        @Option(names = {"--runs"}, description = "The number of the most recent runs to query.", defaultValue = "20", paramLabel = "N")
+        private int runs;
+
+        @Option(names = {"--test"}, description = "Prints the history of a single test. The test is defined as the class name and the test name separated by a #, e.g. org.acme.FooTest#testBar.",
+                paramLabel = "class#test")
+        private String test;
+
+        @Option(names = {"--top"}, description = "The number of tests to print for each query.", defaultValue = "10", paramLabel = "N")
+        private int top;
+
+        @SuppressWarnings("unused")
+        @Option(names = {"-h", "--help"}, usageHelp = true, description = "Display this help message")
+        private boolean usageHelpRequested;
+
+        @ParentCommand
+        private parsesurefire parent;
+
+        @Spec
+        private CommandSpec spec;
+
+        @Override
+        public Integer call() throws Exception {
+            if (runs < 1 || top < 1) {
+                throw new CommandLine.ParameterException(spec.commandLine(), "The --runs and --top values must be greater than 0.");
+            }
+            if (Files.notExists(store.resolve(HistoryStore.INDEX))) {
+                throw new CommandLine.ParameterException(spec.commandLine(), String.format("No history store found in %s.", store));
+            }
+            try (HistoryStore history = HistoryStore.open(store)) {
+                final int to = history.runs();
+                final int from = Math.max(0, to - runs);
+                parent.print("@|bold History: %s|@ - Runs: %d - Tests: %d", store, to, history.tests());
+                if (to == 0) {
+                    return 0;
+                }
+                parent.print("Querying runs %d to %d (%s to %s)", from + 1, to, history.timestamp(from), history.timestamp(to - 1));
+                parent.print();
+                if (test == null) {
+                    printQueries(history, from, to);
+                } else {
+                    printTest(history, from, to);
+                }
+            } finally {
+                if (parent.writer != null && parent.output != null) {
+                    parent.writer.close();
+                }
+            }
+            return 0;
+        }
+
+        private void printQueries(final HistoryStore history, final int from, final int to) throws IOException {
+            final int tests = history.tests();
+            final int[] ran = new int[tests];
+            final int[] failures = new int[tests];
+            final int[] flips = new int[tests];
+            final byte[] last = new byte[tests];
+            // The run the current failure streak of the test started in
+            final int[] failingSince = new int[tests];
+            final long[] oldTime = new long[tests];
+            final int[] oldCount = new int[tests];
+            final long[] newTime = new long[tests];
+            final int[] newCount = new int[tests];
+            Arrays.fill(last, (byte) -1);
+            final int middle = from + (to - from) / 2;
+            for (int run = from; run < to; run++) {
+                final ByteBuffer segment = history.segment(run);
+                for (int position = 0; position < segment.limit(); position += HistoryStore.RECORD_SIZE) {
+                    final int id = segment.getInt(position);
+                    final Status status = HistoryStore.STATUSES[segment.get(position + 4)];
+                    if (status == Status.SKIPPED) {
+                        continue;
+                    }
+                    final long time = segment.getLong(position + 5);
+                    final boolean failed = DiffEntry.isFailure(status);
+                    ran[id]++;
+                    if (failed) {
+                        failures[id]++;
+                        if (last[id] != 1) {
+                            failingSince[id] = run;
+                        }
+                    }
+                    if (last[id] >= 0 && last[id] != (failed ? 1 : 0)) {
+                        flips[id]++;
+                    }
+                    last[id] = (byte) (failed ? 1 : 0);
+                    if (run < middle) {
+                        oldTime[id] += time;
+                        oldCount[id]++;
+                    } else {
+                        newTime[id] += time;
+                        newCount[id]++;
+                    }
+                }
+            }
+            // Each heap holds at most every test in the store, however large --top is
+            final int limit = Math.min(top, tests);
+            final BoundedHeap flaky = new BoundedHeap(limit, (a, b) -> {
+                int result = Integer.compare(flips[b], flips[a]);
+                if (result == 0) {
+                    result = Long.compare((long) failures[b] * ran[a], (long) failures[a] * ran[b]);
+                }
+                return result == 0 ? history.name(a).compareTo(history.name(b)) : result;
+            });
+            final long[] increase = new long[tests];
+            final BoundedHeap slower = new BoundedHeap(limit, (a, b) -> {
+                final int result = Long.compare(increase[b], increase[a]);
+                return result == 0 ? history.name(a).compareTo(history.name(b)) : result;
+            });
+            final BoundedHeap failing = new BoundedHeap(limit, (a, b) -> {
+                final int result = Integer.compare(failingSince[a], failingSince[b]);
+                return result == 0 ? history.name(a).compareTo(history.name(b)) : result;
+            });
+            final ByteBuffer latest = history.segment(to - 1);
+            for (int id = 0; id < tests; id++) {
+                if (failures[id] > 0 && failures[id] < ran[id]) {
+                    flaky.offer(id);
+                }
+                if (oldCount[id] > 0 && newCount[id] > 0) {
+                    increase[id] = toMillis(newTime[id] / newCount[id]) - toMillis(oldTime[id] / oldCount[id]);
+                    if (increase[id] > 0) {
+                        slower.offer(id);
+                    }
+                }
+            }
+            for (int position = 0; position < latest.limit(); position += HistoryStore.RECORD_SIZE) {
+                if (DiffEntry.isFailure(HistoryStore.STATUSES[latest.get(position + 4)])) {
+                    failing.offer(latest.getInt(position));
+                }
+            }
+
+            final int[] flakyIds = flaky.toSortedArray();
+            parent.print("@|bold,white Flakiest Tests: %d|@", flakyIds.length);
+            for (int id : flakyIds) {
+                parent.print(4, "@|bold,cyan %s|@ - Failed %d of %d runs (%s) - Flips: %d", history.name(id), failures[id], ran[id],
+                        formatRate(failures[id], ran[id]), flips[id]);
+            }
+            parent.print();
+            final int[] slowerIds = slower.toSortedArray();
+            parent.print("@|bold,white Largest Duration Increases: %d|@", slowerIds.length);
+            for (int id : slowerIds) {
+                final long oldMean = oldTime[id] / oldCount[id];
+                final long newMean = newTime[id] / newCount[id];
+                parent.print(4, "@|bold,cyan %s|@ @|bold,white %s -> %s|@ @|red (+%s)|@", history.name(id), formatTime(oldMean),
+                        formatTime(newMean), formatMillis(increase[id]));
+            }
+            parent.print();
+            final int[] failingIds = failing.toSortedArray();
+            parent.print("@|bold,white Failing Tests: %d|@", failingIds.length);
+            for (int id : failingIds) {
+                final int since = failingSince[id];
+                parent.print(4, "@|bold,cyan %s|@ - Failing since run %d (%s)%s", history.name(id), since + 1, history.timestamp(since),
+                        since == from && from > 0 ? " or earlier" : "");
+            }
+            parent.print();
+        }
+
+        private void printTest(final HistoryStore history, final int from, final int to) throws IOException {
+            final int id = history.find(test);
+            if (id < 0) {
+                parent.print("The test %s was not found.", test);
+                return;
+            }
+            final int[] counts = new int[HistoryStore.STATUSES.length];
+            int notRun = 0;
+            int failingSince = -1;
+            final List<String> lines = new ArrayList<>();
+            for (int run = from; run < to; run++) {
+                final ByteBuffer segment = history.segment(run);
+                final int position = HistoryStore.find(segment, id);
+                if (position < 0) {
+                    notRun++;
+                    lines.add(String.format("%-6d %-24s %s", run + 1, history.timestamp(run), "-"));
+                    continue;
+                }
+                final Status status = HistoryStore.STATUSES[segment.get(position + 4)];
+                counts[status.ordinal()]++;
+                if (DiffEntry.isFailure(status)) {
+                    if (failingSince < 0) {
+                        failingSince = run;
+                    }
+                } else if (status == Status.PASSED) {
+                    failingSince = -1;
+                }
+                lines.add(String.format("%-6d %-24s @|%s %-8s|@ %s", run + 1, history.timestamp(run), parent.getStatusColor(status), status,
+                        formatTime(segment.getLong(position + 5))));
+            }
+            final int failures = counts[Status.FAILED.ordinal()] + counts[Status.ERROR.ordinal()];
+            final int ran = failures + counts[Status.PASSED.ordinal()];
+            parent.print("@|bold,cyan %s|@", test);
+            parent.print(4, "Runs: %d - @|green PASSED: %d|@ - @|red FAILED: %d|@ - @|bold,red ERRORS: %d|@ - @|yellow SKIPPED: %d|@ - Not run: %d",
+                    to - from, counts[Status.PASSED.ordinal()], counts[Status.FAILED.ordinal()], counts[Status.ERROR.ordinal()],
+                    counts[Status.SKIPPED.ordinal()], notRun);
+            parent.print(4, "Failure rate: %s", formatRate(failures, ran));
+            // The first failure is searched for in all the runs, not only the queried runs
+            for (int run = 0; run < to; run++) {
+                final ByteBuffer segment = history.segment(run);
+                final int position = HistoryStore.find(segment, id);
+                if (position >= 0 && DiffEntry.isFailure(HistoryStore.STATUSES[segment.get(position + 4)])) {
+                    parent.print(4, "First failure: run %d (%s)", run + 1, history.timestamp(run));
+                    break;
+                }
+            }
+            if (failingSince >= 0) {
+                parent.print(4, "Failing since: run %d (%s)", failingSince + 1, history.timestamp(failingSince));
+            }
+            parent.print();
+            parent.print(4, "@|bold %-6s %-24s %-8s %s|@", "Run", "Timestamp", "Status", "Time");
+            for (String line : lines) {
+                parent.print(4, "%s", line);
+            }
+            parent.print();
+        }
+
+        private static String formatRate(final int count, final int total) {
+            return total == 0 ? "0.0%" : String.format(Locale.ROOT, "%.1f%%", (count * 100.0) / total);
+        }
+    }
+
+    /**
+     * An append-only store of the test results of each run.
+     * <p>
+     * The store is a directory with three files. The {@code tests.log} file is the dictionary of the tests, the
+     * position of a test in the file is the test id. The {@code runs.log} file contains a segment for each run with a
+     * fixed size record, the test id, status and time, for each test sorted by the test id. The {@code runs.idx} file
+     * contains the timestamp, the offset and the number of records of each segment. Writing the entry to the index
+     * commits the run, anything written after the last committed run is ignored and overwritten by the next run.
+     * </p>
+     * <p>
+     * The segments are read from memory-mapped windows of the log and a test is found in a run with a binary search,
+     * so the reports are never parsed again.
+     * </p>
+     */
+    private static class HistoryStore implements Closeable {
+        static final String INDEX = "runs.idx";
+        static final int RECORD_SIZE = 13;
+        static final Status[] STATUSES = Status.values();
+        private static final int MAGIC = 0x50535248;
+        private static final int VERSION = 1;
+        private static final int HEADER_SIZE = 8;
+        private static final int RUN_SIZE = 20;
+        private static final long WINDOW_SIZE = 1L << 30;
+
+        private final FileChannel index;
+        private final FileChannel log;
+        private final FileChannel tests;
+        // The key of each test is the class name and the test name separated by a #
+        private final Interner<String> names = new Interner<>();
+        private long testsSize;
+        private long[] timestamps = new long[16];
+        private long[] offsets = new long[16];
+        private int[] counts = new int[16];
+        private int runs;
+        private ByteBuffer window;
+        private long windowStart;
+        private long windowEnd;
+
+        private HistoryStore(final Path dir, final boolean write) throws IOException {
+            final Set<StandardOpenOption> options = write
+                    ? EnumSet.of(StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)
+                    : EnumSet.of(StandardOpenOption.READ);
+            index = FileChannel.open(dir.resolve(INDEX), options);
+            try {
+                log = FileChannel.open(dir.resolve("runs.log"), options);
+                tests = FileChannel.open(dir.resolve("tests.log"), options);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Opens an existing store for reading.
+         *
+         * @param dir the directory of the store
+         *
+         * @return the store
+         *
+         * @throws IOException if the store cannot be read
+         */
+        static HistoryStore open(final Path dir) throws IOException {
+            final HistoryStore store = new HistoryStore(dir, false);
+            try {
+                store.load();
+            } catch (IOException e) {
+                store.close();
+                throw e;
+            }
+            return store;
+        }
+
+        /**
+         * Appends the results as a new run. The store is locked while appending so concurrent invocations do not
+         * interleave their runs.
+         *
+         * @param dir       the directory of the store, created if it does not exist
+         * @param results   the results of the run
+         * @param timestamp the time of the run in milliseconds since the epoch
+         *
+         * @throws IOException if writing the run fails
+         */
+        static void record(final Path dir, final ResultStore results, final long timestamp) throws IOException {
+            Files.createDirectories(dir);
+            try (HistoryStore store = new HistoryStore(dir, true)) {
+                final FileLock lock = store.index.lock();
+                try {
+                    if (store.index.size() == 0) {
+                        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+                        write(store.index, header, 0);
+                    }
+                    store.load();
+                    store.append(results, timestamp);
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+
+        int runs() {
+            return runs;
+        }
+
+        int tests() {
+            return names.size();
+        }
+
+        String name(final int id) {
+            return names.get(id);
+        }
+
+        /**
+         * Finds the id of the test.
+         *
+         * @param name the class name and the test name separated by a #
+         *
+         * @return the id or -1 if the test has not been recorded
+         */
+        int find(final String name) {
+            return names.find(name);
+        }
+
+        Instant timestamp(final int run) {
+            return Instant.ofEpochMilli(timestamps[run]);
+        }
+
+        /**
+         * Returns the records of the run. The buffer is a view of a memory-mapped window of the log which is reused
+         * for the following runs which fit in the window.
+         *
+         * @param run the run
+         *
+         * @return the records of the run
+         *
+         * @throws IOException if mapping the log fails
+         */
+        ByteBuffer segment(final int run) throws IOException {
+            final long start = offsets[run];
+            final long end = start + ((long) counts[run] * RECORD_SIZE);
+            if (window == null || start < windowStart || end > windowEnd) {
+                windowStart = start;
+                windowEnd = Math.min(log.size(), start + Math.max(WINDOW_SIZE, end - start));
+                if (end > windowEnd || end - start > Integer.MAX_VALUE) {
+                    throw new IOException(String.format("The segment of run %d is not within the log.", run + 1));
+                }
+                window = log.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+            }
+            return window.duplicate()
+                    .position((int) (start - windowStart))
+                    .limit((int) (end - windowStart))
+                    .slice();
+        }
+
+        /**
+         * Finds the record of the test in the segment with a binary search.
+         *
+         * @param segment the segment of a run
+         * @param id      the test id
+         *
+         * @return the position of the record or -1 if the test is not in the run
+         */
+        static int find(final ByteBuffer segment, final int id) {
+            int low = 0;
+            int high = (segment.limit() / RECORD_SIZE) - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int value = segment.getInt(mid * RECORD_SIZE);
+                if (value < id) {
+                    low = mid + 1;
+                } else if (value > id) {
+                    high = mid - 1;
+                } else {
+                    return mid * RECORD_SIZE;
+                }
+            }
+            return -1;
+        }
+
+        private void load() throws IOException {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (index.read(header, 0) != HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("The directory is not a history store or was written by a different version.");
+            }
+            // An incomplete entry is from an interrupted run and is ignored
+            runs = (int) ((index.size() - HEADER_SIZE) / RUN_SIZE);
+            timestamps = new long[Math.max(16, runs + 1)];
+            offsets = new long[timestamps.length];
+            counts = new int[timestamps.length];
+            final ByteBuffer entries = ByteBuffer.allocate(runs * RUN_SIZE);
+            while (entries.hasRemaining() && index.read(entries, HEADER_SIZE + entries.position()) > 0) {
+                // Read the entire index
+            }
+            for (int run = 0; run < runs; run++) {
+                timestamps[run] = entries.getLong(run * RUN_SIZE);
+                offsets[run] = entries.getLong(run * RUN_SIZE + 8);
+                counts[run] = entries.getInt(run * RUN_SIZE + 16);
+            }
+            names.clear();
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(tests.position(0))));
+            testsSize = 0;
+            try {
+                while (true) {
+                    final String className = ParseCache.readString(in);
+                    final String testName = ParseCache.readString(in);
+                    names.intern(className + '#' + testName);
+                    testsSize += 8 + utf8Length(className) + utf8Length(testName);
+                }
+            } catch (EOFException e) {
+                // The end of the dictionary, an incomplete entry is overwritten by the next run
+            }
+        }
+
+        private void append(final ResultStore results, final long timestamp) throws IOException {
+            final int size = results.size();
+            final int[] ids = new int[size];
+            final long[] sorted = new long[size];
+            final ByteArrayOutputStream added = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(added);
+            for (int row = 0; row < size; row++) {
+                final TestResult result = results.get(row);
+                final int known = names.size();
+                ids[row] = names.intern(result.className + '#' + result.testName);
+                if (ids[row] == known) {
+                    ParseCache.writeString(out, result.className);
+                    ParseCache.writeString(out, result.testName);
+                }
+                sorted[row] = ((long) ids[row] << 32) | row;
+            }
+            Arrays.sort(sorted);
+            // A test found more than once in the run is recorded once with the worst status
+            final ByteBuffer records = ByteBuffer.allocate(size * RECORD_SIZE);
+            int count = 0;
+            for (long key : sorted) {
+                final int row = (int) key;
+                final TestResult result = results.get(row);
+                final int position = count * RECORD_SIZE;
+                if (count > 0 && records.getInt(position - RECORD_SIZE) == ids[row]) {
+                    if (severity(result.status) > severity(STATUSES[records.get(position - RECORD_SIZE + 4)])) {
+                        records.put(position - RECORD_SIZE + 4, (byte) result.status.ordinal())
+                                .putLong(position - RECORD_SIZE + 5, result.time);
+                    }
+                    continue;
+                }
+                records.putInt(position, ids[row])
+                        .put(position + 4, (byte) result.status.ordinal())
+                        .putLong(position + 5, result.time);
+                count++;
+            }
+            records.limit(count * RECORD_SIZE);
+
+            out.flush();
+            write(tests, ByteBuffer.wrap(added.toByteArray()), testsSize);
+            testsSize += added.size();
+            tests.truncate(testsSize);
+            tests.force(false);
+            final long offset = runs == 0 ? 0 : offsets[runs - 1] + ((long) counts[runs - 1] * RECORD_SIZE);
+            write(log, records, offset);
+            log.truncate(offset + records.limit());
+            log.force(false);
+            final ByteBuffer entry = ByteBuffer.allocate(RUN_SIZE).putLong(timestamp).putLong(offset).putInt(count).flip();
+            final long position = HEADER_SIZE + ((long) runs * RUN_SIZE);
+            write(index, entry, position);
+            index.truncate(position + RUN_SIZE);
+            index.force(false);
+            runs++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            // The log and tests channels are null if the constructor failed to open them
+            try {
+                index.close();
+            } finally {
+                try {
+                    if (log != null) {
+                        log.close();
+                    }
+                } finally {
+                    if (tests != null) {
+                        tests.close();
+                    }
+                }
+            }
+        }
+
+        private static void write(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+            long current = position;
+            while (buffer.hasRemaining()) {
+                current += channel.write(buffer, current);
+            }
+        }
+
+        private static int utf8Length(final String value) {
+            return value.getBytes(StandardCharsets.UTF_8).length;
+        }
+    }
+
+    /**
+     * Plans shards of test classes with similar total durations. The classes are assigned with the longest processing
+     * time first rule, each class from the slowest is assigned to the shard with the lowest total so far.
+     */
+    @Command(name = "plan-shards", description = "Splits the test classes into shards with balanced durations based on the report timings.",
+            showDefaultValues = true)
+    static class PlanShardsCommand implements Callable<Integer> {
+
+        @Parameters(arity = "1", description = "A surefire XML report, a directory which contains reports or a zip, tar or tar.gz archive which contains reports.",
+                defaultValue = ".")
+        private Path file;
+
+        @Option(names = {"-n", "--shards"}, description = "The number of shards, at most one shard is planned for each test class.", required = true,
+                showDefaultValue = CommandLine.Help.Visibility.NEVER)
+        private int shards;
+
+        @Option(names = {"--format"}, description = {
+                "The output format. The options are ${COMPLETION-CANDIDATES}.",
+                "The includes format prints only a comma delimited list of classes for each shard, one shard per line, which can be used as the surefire -Dtest property."},
+                defaultValue = "text")
+        private ShardFormat format;
+
+        @Option(names = {"--history"}, description = "A history store written with --record. The mean duration of each class in the recent runs is blended with the duration from the reports.",
+                paramLabel = "store")
+        private Path history;
+
+        @Option(names = {"--history-runs"}, description = "The number of the most recent runs of the history store to use.", defaultValue = "20", paramLabel = "N")
+        private int historyRuns;
+
+        @Option(names = {"--history-weight"}, description = "The weight, between 0 and 1, of the historical duration when blended with the duration from the reports.",
+                defaultValue = "0.5", paramLabel = "weight")
+        private double historyWeight;
+
+        @SuppressWarnings("unused")
+        @Option(names = {"-h", "--help"}, usageHelp = true, description = "Display this help message")
+        private boolean usageHelpRequested;
+
+        @ParentCommand
+        private parsesurefire parent;
+
+        @Spec
+        private CommandSpec spec;
+
+        @Override
+        public Integer call() throws Exception {
+            if (shards < 1) {
+                throw new CommandLine.ParameterException(spec.commandLine(), "The number of shards must be greater than 0.");
+            }
+            if (historyRuns < 1 || historyWeight < 0 || historyWeight > 1) {
+                throw new CommandLine.ParameterException(spec.commandLine(), "The --history-runs value must be greater than 0 and the --history-weight must be between 0 and 1.");
+            }
+            if (history != null && Files.notExists(history.resolve(HistoryStore.INDEX))) {
+                throw new CommandLine.ParameterException(spec.commandLine(), String.format("No history store found in %s.", history));
+            }
+            try {
+                final ResultStore results = parent.parseAll(file);
+                final List<ClassTime> classes = results.slowestClasses(EnumSet.allOf(Status.class), Integer.MAX_VALUE);
+                final String[] names = new String[classes.size()];
+                final long[] times = new long[classes.size()];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = classes.get(i).className;
+                    times[i] = classes.get(i).time;
+                }
+                if (history != null) {
+                    blend(names, times);
+                }
+                if (names.length == 0) {
+                    spec.commandLine().getErr().println("No test classes were found.");
+                    return 0;
+                }
+                // Extra shards would be empty, so at most one shard is planned for each class
+                final int count = Math.min(shards, names.length);
+                if (count < shards) {
+                    spec.commandLine().getErr().printf("Planning %d shards instead of %d, the number of test classes found.%n", count, shards);
+                }
+                final List<Shard> plan = plan(names, times, count);
+                if (format == ShardFormat.includes) {
+                    for (Shard shard : plan) {
+                        parent.getWriter().println(String.join(",", shard.classes));
+                    }
+                } else {
+                    printPlan(plan, times);
+                }
+            } finally {
+                if (parent.writer != null && parent.output != null) {
+                    parent.writer.close();
+                }
+            }
+            return 0;
+        }
+
+        private List<Shard> plan(final String[] names, final long[] times, final int count) {
+            final Integer[] order = new Integer[names.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.<Integer>comparingLong(i -> times[i]).reversed().thenComparing(i -> names[i]));
+            final List<Shard> plan = new ArrayList<>(count);
+            final PriorityQueue<Shard> lightest = new PriorityQueue<>(Comparator.<Shard>comparingLong(shard -> shard.time)
+                    .thenComparingInt(shard -> shard.index));
+            for (int i = 0; i < count; i++) {
+                final Shard shard = new Shard(i);
+                plan.add(shard);
+                lightest.add(shard);
+            }
+            for (int i : order) {
+                final Shard shard = lightest.poll();
+                shard.classes.add(names[i]);
+                shard.time += times[i];
+                lightest.add(shard);
+            }
+            for (Shard shard : plan) {
+                shard.classes.sort(Comparator.naturalOrder());
+            }
+            return plan;
+        }
+
+        /**
+         * Blends the times with the mean time of each class in the recent runs of the history store. Classes which
+         * are not in the history keep the time from the reports.
+         *
+         * @param names the class names
+         * @param times the times to blend
+         *
+         * @throws IOException if reading the history fails
+         */
+        private void blend(final String[] names, final long[] times) throws IOException {
+            try (HistoryStore store = HistoryStore.open(history)) {
+                final Map<String, Integer> classes = new HashMap<>();
+                for (int i = 0; i < names.length; i++) {
+                    classes.put(names[i], i);
+                }
+                // Map each test id to the index of its class, -1 if the class is not being planned
+                final int[] testClasses = new int[store.tests()];
+                for (int id = 0; id < testClasses.length; id++) {
+                    final String name = store.name(id);
+                    testClasses[id] = classes.getOrDefault(name.substring(0, name.indexOf('#')), -1);
+                }
+                final long[] sums = new long[names.length];
+                final int[] runs = new int[names.length];
+                final int[] lastRun = new int[names.length];
+                Arrays.fill(lastRun, -1);
+                for (int run = Math.max(0, store.runs() - historyRuns); run < store.runs(); run++) {
+                    final ByteBuffer segment = store.segment(run);
+                    for (int position = 0; position < segment.limit(); position += HistoryStore.RECORD_SIZE) {
+                        final int index = testClasses[segment.getInt(position)];
+                        if (index < 0) {
+                            continue;
+                        }
+                        sums[index] += segment.getLong(position + 5);
+                        if (lastRun[index] != run) {
+                            lastRun[index] = run;
+                            runs[index]++;
+                        }
+                    }
+                }
+                for (int i = 0; i < times.length; i++) {
+                    if (runs[i] > 0) {
+                        times[i] = Math.round(((1 - historyWeight) * times[i]) + (historyWeight * sums[i] / runs[i]));
+                    }
+                }
+            }
+        }
+
+        private void printPlan(final List<Shard> plan, final long[] times) {
+            long total = 0;
+            long slowestClass = 0;
+            for (long time : times) {
+                total += time;
+                slowestClass = Math.max(slowestClass, time);
+            }
+            long makespan = 0;
+            for (Shard shard : plan) {
+                makespan = Math.max(makespan, shard.time);
+                parent.print("@|bold,cyan Shard %d|@ - Classes: %d - Predicted time: %s", shard.index + 1, shard.classes.size(), formatTime(shard.time));
+                parent.print(4, "%s", String.join(",", shard.classes));
+            }
+            parent.print();
+            final double mean = (double) total / plan.size();
+            // No plan can finish before the slowest class or the mean of the shards
+            final long lowerBound = Math.max(slowestClass, (total + plan.size() - 1) / plan.size());
+            parent.print("@|bold,white Predicted makespan: %s|@ - Lower bound: %s - Imbalance: %s", formatTime(makespan), formatTime(lowerBound),
+                    mean == 0 ? "0.0%" : String.format(Locale.ROOT, "%.1f%%", ((makespan - mean) * 100.0) / mean));
+        }
+    }
+
+    /**
+     * A shard of test classes planned by the {@code plan-shards} command.
+     */
+    private static class Shard {
+        private final int index;
+        private final List<String> classes = new ArrayList<>();
+        // The predicted time in microseconds
+        private long time;
+
+        private Shard(final int index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Merges the partial summaries written with {@code --emit-partial} and prints the totals. The partial summaries
+     * only contain the rows of the failed and errored tests, so only those can be printed in detail.
+     */
+    @Command(name = "merge", description = "Merges the partial summaries written with --emit-partial and prints the totals.",
+            showDefaultValues = true)
+    static class MergeCommand implements Callable<Integer> {
+
+        @Parameters(arity = "1..*", description = "The partial summaries to merge.")
+        private List<Path> partials;
+
+        @SuppressWarnings("unused")
+        @Option(names = {"-h", "--help"}, usageHelp = true, description = "Display this help message")
+        private boolean usageHelpRequested;
+
+        @ParentCommand
+        private parsesurefire parent;
+
+        @Spec
+        private CommandSpec spec;
+
+        @Override
+        public Integer call() throws Exception {
+            if (parent.top != null) {
+                throw new CommandLine.ParameterException(spec.commandLine(), "The --top option cannot be used when merging partial summaries.");
+            }
+            if (parent.reportType.printDetail() && !EnumSet.of(Status.FAILED, Status.ERROR).containsAll(parent.getStatusesToPrint())) {
+                throw new CommandLine.ParameterException(spec.commandLine(),
+                        "Partial summaries only contain the failed and errored tests, the detail and summary report types require the -s FAILED,ERROR option.");
+            }
+            final Instant start = Instant.now();
+            try {
+                final ResultStore totals = new ResultStore(true);
+                Path root = null;
+                for (Path partial : partials) {
+                    if (parent.group) {
+                        final ResultStore results = new ResultStore(true);
+                        PartialSummary.read(partial, results);
+                        parent.print("@|bold,cyan %s|@", partial);
+                        parent.printTotals(partial, results, parent.reportType.printDetail());
+                    }
+                    final Path partialRoot = PartialSummary.read(partial, totals);
+                    // The merged results are reported for the path the reports were parsed from if it is the same for all
+                    root = root == null || root.equals(partialRoot) ? partialRoot : Path.of(".");
+                }
+                if (parent.group) {
+                    parent.print("@|bold All Tests|@");
+                    parent.printTotals(null, totals, false);
+                } else {
+                    parent.printTotals(root, totals, parent.reportType.printDetail());
+                }
+            } finally {
+                if (parent.verbose) {
+                    spec.commandLine()
+                            .getOut()
+                            .println(parent.format("@|bold Completed in %s|@", toHumanReadable(Duration.between(start, Instant.now()))));
+                }
+                if (parent.writer != null && parent.output != null) {
+                    parent.writer.close();
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * The file format of the partial summaries written with {@code --emit-partial}. The size of a partial summary
+     * depends on the number of test classes and failures, not on the number of tests, so merging them is fast.
+     */
+    private static class PartialSummary {
+        private static final int MAGIC = 0x50535250;
+        private static final int VERSION = 1;
+
+        /**
+         * Writes the partial summary of the results.
+         *
+         * @param file    the file to write to
+         * @param root    the path the reports were parsed from
+         * @param results the results, which must record histograms
+         *
+         * @throws IOException if writing fails
+         */
+        static void write(final Path file, final Path root, final ResultStore results) throws IOException {
+            final Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                ParseCache.writeString(out, root.toString());
+                results.writePartial(out);
+            }
+        }
+
+        /**
+         * Reads the partial summary and adds it to the results.
+         *
+         * @param file    the file to read
+         * @param results the results to add to, which must record histograms
+         *
+         * @return the path the reports of the partial summary were parsed from
+         *
+         * @throws IOException if reading fails or the file is not a partial summary
+         */
+        static Path read(final Path file, final ResultStore results) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException(String.format("The file %s is not a partial summary or was written by a different version.", file));
+                }
+                final Path root = Path.of(ParseCache.readString(in));
+                results.addPartial(in);
+                return root;
+            } catch (EOFException e) {
+                throw new IOException(String.format("The partial summary %s is incomplete.", file), e);
+            }
+        }
+    }
+
+    /**
+     * The state shared by the workers parsing the reports. Each worker accumulates into its own shard, a map of the
+     * group to the results, which are merged once all the reports have been parsed.
+     *
+     * @param <T> the type of the results
+     */
+    private class ParseContext<T> {
+        private final Path root;
+        private final Supplier<T> factory;
+        private final BiConsumer<ReportSource, T> parser;
+        private final Queue<Map<Path, T>> shards = new ConcurrentLinkedQueue<>();
+        private final ThreadLocal<Map<Path, T>> shard = ThreadLocal.withInitial(() -> {
+            final Map<Path, T> map = new HashMap<>();
+            shards.add(map);
+            return map;
+        });
+
+        private ParseContext(final Path root, final Supplier<T> factory, final BiConsumer<ReportSource, T> parser) {
+            this.root = root;
+            this.factory = factory;
+            this.parser = parser;
+        }
+
+        /**
+         * Parses the report into the shard of the current thread.
+         *
+         * @param source the report to parse
+         */
+        void parse(final ReportSource source) {
+            final T results = shard.get().computeIfAbsent(group ? source.path().getParent() : root, (current) -> factory.get());
+            parser.accept(source, results);
+        }
+
+        /**
+         * Merges the shards of each worker.
+         *
+         * @param pool   the pool used to merge the shards
+         * @param merger the function used to merge the results of a group
+         *
+         * @return the merged results
+         */
+        Map<Path, T> merge(final ForkJoinPool pool, final BiConsumer<T, T> merger) {
+            return pool.invoke(new ShardMerger<>(List.copyOf(shards), merger));
+        }
+    }
+
+    /**
+     * Walks a directory tree in parallel. A task is forked for each directory and each matching report is parsed in
+     * its own task, so the walk and the parsing share the same pool of workers.
+     */
+    private class ReportWalker {
+        private final Path root;
+        private final ParseContext<?> context;
+        private final PathMatcher pattern;
+        private final ExcludeFilter filter;
+
+        private ReportWalker(final Path root, final ParseContext<?> context) {
+            this.root = root;
+            this.context = context;
+            this.pattern = root.getFileSystem().getPathMatcher(REPORT_GLOB);
+            this.filter = new ExcludeFilter(root.getFileSystem());
+        }
+
+        /**
+         * Creates the task which walks the directory.
+         *
+         * @param dir the directory to walk
+         *
+         * @return the task
+         */
+        RecursiveAction task(final Path dir) {
+            return new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    final List<RecursiveAction> tasks = new ArrayList<>();
+                    try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                        for (Path entry : entries) {
+                            final Path fileName = entry.getFileName();
+                            if (fileName != null && pattern.matches(fileName)) {
+                                tasks.add(new ParseTask(context, ReportSource.of(entry)));
+                            } else if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS) && !filter.isExcluded(root.relativize(entry))) {
+                                tasks.add(task(entry));
+                            }
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    invokeAll(tasks);
+                }
+            };
+        }
+
+    }
+
+    /**
+     * Watches a directory for new, modified and deleted reports and redraws the summary as the reports change.
+     * <p>
+     * The tests of each report are kept with a reference count of each distinct test, so a changed report only
+     * updates the totals for its own tests and duplicate tests in multiple reports are still counted once. A report is
+     * parsed once no events have been received for it within the debounce time. A report which fails to parse, likely
+     * because it is still being written, keeps its previous tests until the next event for it.
+     * </p>
+     */
+    private class ReportWatcher {
+        private final Path root;
+        private final PathMatcher pattern;
+        private final ExcludeFilter filter;
+        private final Map<WatchKey, Path> dirs = new HashMap<>();
+        private final Map<Path, List<TestResult>> reports = new HashMap<>();
+        private final Map<TestResult, Integer> references = new HashMap<>();
+        private final int[] counts = new int[Status.values().length];
+        // The reports with events which have not been parsed and the time of the last event
+        private final Map<Path, Long> pending = new HashMap<>();
+        // The number of lines written by the last draw, 0 if nothing has been drawn
+        private int drawnLines;
+
+        private ReportWatcher(final Path root) {
+            this.root = root;
+            this.pattern = root.getFileSystem().getPathMatcher(REPORT_GLOB);
+            this.filter = new ExcludeFilter(root.getFileSystem());
+        }
+
+        /**
+         * Parses all the reports and then watches for changes until interrupted.
+         *
+         * @throws IOException          if watching the directories fails
+         * @throws InterruptedException if interrupted while waiting for changes
+         */
+        void run() throws IOException, InterruptedException {
+            final long debounce = TimeUnit.MILLISECONDS.toNanos(watchDebounce);
+            try (WatchService watchService = root.getFileSystem().newWatchService()) {
+                // Register before parsing so a report written while parsing is not missed
+                register(watchService, root);
+                final Map<Path, Map<Path, List<TestResult>>> grouped = parseFile(root, HashMap::new, (source, results) -> {
+                    final List<TestResult> tests = parse(source);
+                    if (tests != null) {
+                        results.put(source.path(), tests);
+                    }
+                }, Map::putAll);
+                grouped.values().forEach(results -> results.forEach(this::update));
+                draw();
+                while (true) {
+                    WatchKey key = pending.isEmpty() ? watchService.take() : watchService.poll(watchDebounce, TimeUnit.MILLISECONDS);
+                    while (key != null) {
+                        handle(watchService, key);
+                        key = watchService.poll();
+                    }
+                    final long now = System.nanoTime();
+                    boolean changed = false;
+                    final var iter = pending.entrySet().iterator();
+                    while (iter.hasNext()) {
+                        final Map.Entry<Path, Long> entry = iter.next();
+                        if (now - entry.getValue() >= debounce) {
+                            iter.remove();
+                            changed |= refresh(entry.getKey());
+                        }
+                    }
+                    if (changed) {
+                        draw();
+                    }
+                }
+            }
+        }
+
+        private void register(final WatchService watchService, final Path dir) throws IOException {
+            dirs.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE), dir);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS) && !filter.isExcluded(root.relativize(entry))) {
+                        register(watchService, entry);
+                    }
+                }
+            }
+        }
+
+        private void handle(final WatchService watchService, final WatchKey key) throws IOException {
+            final Path dir = dirs.get(key);
+            final long now = System.nanoTime();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Events were lost, check every report known and any new ones
+                    reports.keySet().forEach(report -> pending.put(report, now));
+                    addReports(dir, now);
+                    continue;
+                }
+                final Path entry = dir.resolve((Path) event.context());
+                if (pattern.matches(entry.getFileName())) {
+                    pending.put(entry, now);
+                } else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)
+                        && !filter.isExcluded(root.relativize(entry))) {
+                    // Reports may have been written before the directory was registered
+                    register(watchService, entry);
+                    addReports(entry, now);
+                }
+            }
+            if (!key.reset()) {
+                dirs.remove(key);
+            }
+        }
+
+        private void addReports(final Path dir, final long now) throws IOException {
+            if (Files.notExists(dir)) {
+                return;
+            }
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    if (pattern.matches(entry.getFileName())) {
+                        pending.put(entry, now);
+                    } else if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS) && !filter.isExcluded(root.relativize(entry))) {
+                        addReports(entry, now);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Parses the report again, or removes its tests if it was deleted.
+         *
+         * @param report the report
+         *
+         * @return {@code true} if the tests were updated
+         */
+        private boolean refresh(final Path report) {
+            if (Files.notExists(report)) {
+                return reports.containsKey(report) && update(report, null);
+            }
+            final List<TestResult> tests = parse(ReportSource.of(report));
+            return tests != null && update(report, tests);
+        }
+
+        private List<TestResult> parse(final ReportSource source) {
+            final List<TestResult> tests = new ArrayList<>();
+            try {
+                return parseReport(source, tests::add) ? tests : null;
+            } catch (IOException e) {
+                if (verbose) {
+                    printParseError(source.path(), e);
+                }
+                return null;
+            }
+        }
+
+        /**
+         * Replaces the tests of the report.
+         *
+         * @param report the report
+         * @param tests  the tests of the report or {@code null} if the report was deleted
+         *
+         * @return {@code true}
+         */
+        private boolean update(final Path report, final List<TestResult> tests) {
+            final List<TestResult> previous;
+            if (tests == null) {
+                previous = reports.remove(report);
+            } else {
+                previous = reports.put(report, tests);
+                // Add the new tests first so the tests which did not change are never removed
+                for (TestResult test : tests) {
+                    if (references.merge(test, 1, Integer::sum) == 1) {
+                        counts[test.status.ordinal()]++;
+                    }
+                }
+            }
+            if (previous != null) {
+                for (TestResult test : previous) {
+                    if (references.computeIfPresent(test, (key, value) -> value == 1 ? null : value - 1) == null) {
+                        counts[test.status.ordinal()]--;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private void draw() {
+            final int passed = counts[Status.PASSED.ordinal()];
+            final int failed = counts[Status.FAILED.ordinal()];
+            final int errors = counts[Status.ERROR.ordinal()];
+            final int skipped = counts[Status.SKIPPED.ordinal()];
+            final String summary = formatTotal(passed + failed + errors + skipped, passed, failed, errors, skipped);
+            final String status = format("@|faint Watching %s - Reports: %d - Updated: %s|@", root, reports.size(),
+                    LocalTime.now().truncatedTo(ChronoUnit.SECONDS));
+            final PrintWriter writer = getWriter();
+            if (drawnLines > 0 && ansi.enabled()) {
+                // Move the cursor up to the previous summary and clear it
+                writer.print("\u001B[" + drawnLines + "A\u001B[J");
+            }
+            writer.println(status);
+            printSummary(summary);
+            writer.flush();
+            // The summary is framed by two lines and may span several lines with a custom format
+            drawnLines = countLines(status) + countLines(summary) + 2;
+        }
+
+        private int countLines(final String value) {
+            int lines = 1;
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) == '\n') {
+                    lines++;
+                }
+            }
+            return lines;
+        }
+    }
+
+    /**
+     * Encodes the test results in a machine-readable format as the reports are parsed. The results of a report are
+     * encoded into a buffer owned by the parsing thread and the complete records are appended to the writer, so the
+     * memory used does not depend on the number of tests.
+     */
+    private static class ResultWriter {
+        // The buffer is flushed once it is larger than this even if the report has more tests
+        private static final int FLUSH_SIZE = 64 * 1024;
+
+        private final PrintWriter writer;
+        private final OutputFormat format;
+        private final boolean details;
+        private boolean empty = true;
+
+        private ResultWriter(final PrintWriter writer, final OutputFormat format, final boolean details) {
+            this.writer = writer;
+            this.format = format;
+            this.details = details;
+        }
+
+        /**
+         * Writes the start of the document.
+         */
+        void begin() {
+            if (format == OutputFormat.json) {
+                writer.print('[');
+            } else if (format == OutputFormat.csv) {
+                writer.print(details ? "file,status,className,title,testName,time,message,detailMessage\n"
+                        : "file,status,className,title,testName,time,message\n");
+            }
+        }
+
+        /**
+         * Encodes the test result into the buffer and flushes the buffer if it is full.
+         *
+         * @param result the test result
+         * @param buffer the buffer of the current thread
+         *
+         * @throws IOException if reading the detail message fails
+         */
+        void write(final TestResult result, final StringBuilder buffer) throws IOException {
+            final String detailMessage = details ? result.detailMessage.read() : null;
+            if (format == OutputFormat.csv) {
+                appendCsv(buffer, result.file.toString()).append(',').append(result.status).append(',');
+                appendCsv(buffer, result.className).append(',');
+                appendCsv(buffer, result.title).append(',');
+                appendCsv(buffer, result.testName).append(',').append(formatTime(result.time)).append(',');
+                appendCsv(buffer, result.message);
+                if (detailMessage != null) {
+                    appendCsv(buffer.append(','), detailMessage);
+                }
+                buffer.append('\n');
+            } else {
+                if (format == OutputFormat.json && buffer.length() > 0) {
+                    buffer.append(",\n");
+                }
+                buffer.append("{\"file\":");
+                appendJsonString(buffer, result.file.toString());
+                buffer.append(",\"status\":\"").append(result.status).append("\",\"className\":");
+                appendJsonString(buffer, result.className);
+                buffer.append(",\"title\":");
+                appendJsonString(buffer, result.title);
+                buffer.append(",\"testName\":");
+                appendJsonString(buffer, result.testName);
+                buffer.append(",\"time\":").append(formatTime(result.time)).append(",\"message\":");
+                appendJsonString(buffer, result.message);
+                if (detailMessage != null) {
+                    buffer.append(",\"detailMessage\":");
+                    appendJsonString(buffer, detailMessage);
+                }
+                buffer.append('}');
+                if (format == OutputFormat.ndjson) {
+                    buffer.append('\n');
+                }
+            }
+            if (buffer.length() >= FLUSH_SIZE) {
+                flush(buffer);
+            }
+        }
+
+        /**
+         * Appends the complete records in the buffer to the writer and clears the buffer.
+         *
+         * @param buffer the buffer of the current thread
+         */
+        synchronized void flush(final StringBuilder buffer) {
+            if (buffer.length() == 0) {
+                return;
+            }
+            if (format == OutputFormat.json) {
+                writer.print(empty ? "\n" : ",\n");
+            }
+            writer.append(buffer);
+            empty = false;
+            buffer.setLength(0);
+        }
+
+        /**
+         * Writes the end of the document.
+         */
+        void end() {
+            if (format == OutputFormat.json) {
+                writer.print(empty ? "]\n" : "\n]\n");
+            }
+            writer.flush();
+        }
+
+        private static StringBuilder appendCsv(final StringBuilder buffer, final String value) {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                final char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                return buffer.append(value);
+            }
+            buffer.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c == '"') {
+                    buffer.append('"');
+                }
+                buffer.append(c);
+            }
+            return buffer.append('"');
+        }
+    }
+
+    /**
+     * Writes the test results of all the reports into a single JUnit XML document with a {@code testsuite} element
+     * for each report. The reports are parsed in parallel and each suite is written to a temporary file of the
+     * parsing thread. The suites are then copied into the document in the order of the report paths, so only the
+     * location of each suite is kept in memory.
+     */
+    private static class MergedXmlWriter implements Closeable {
+        private final XMLOutputFactory factory = XMLOutputFactory.newFactory();
+        private final ThreadLocal<XMLInputFactory> inputFactory = ThreadLocal.withInitial(() -> {
+            final XMLInputFactory factory = XMLInputFactory.newFactory();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+            return factory;
+        });
+        private final Queue<SuiteSpill> spills = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Creates the spill for the suites written by a parsing thread.
+         *
+         * @return a new spill
+         */
+        SuiteSpill createSpill() {
+            final SuiteSpill spill = new SuiteSpill();
+            spills.add(spill);
+            return spill;
+        }
+
+        /**
+         * Reads the name of the {@code testsuite} element of the report. If the report does not have a name, the name
+         * is taken from the {@code TEST-<name>.xml} file name.
+         *
+         * @param source the report
+         *
+         * @return the name of the suite
+         *
+         * @throws IOException if reading the report fails
+         */
+        String suiteName(final ReportSource source) throws IOException {
+            try (InputStream in = source.open()) {
+                final XMLStreamReader reader = inputFactory.get().createXMLStreamReader(in);
+                try {
+                    while (reader.hasNext()) {
+                        if (reader.next() == XMLStreamConstants.START_ELEMENT && "testsuite".equals(reader.getLocalName())) {
+                            final String name = reader.getAttributeValue(null, "name");
+                            if (name != null && !name.isBlank()) {
+                                return name;
+                            }
+                            break;
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (XMLStreamException e) {
+                // The report has already been parsed, a lenient parser may have accepted it
+            }
+            String name = source.path().getFileName().toString();
+            if (name.startsWith("TEST-")) {
+                name = name.substring(5);
+            }
+            return name.endsWith(".xml") ? name.substring(0, name.length() - 4) : name;
+        }
+
+        /**
+         * Writes the suite of a report to the spill.
+         *
+         * @param spill   the spill of the current thread
+         * @param report  the path of the report
+         * @param name    the name of the suite
+         * @param results the test results of the report in the order they were found
+         *
+         * @throws IOException if writing the suite fails
+         */
+        void writeSuite(final SuiteSpill spill, final Path report, final String name, final List<TestResult> results) throws IOException {
+            final SuiteEntry entry = new SuiteEntry(report);
+            for (TestResult result : results) {
+                entry.add(result);
+            }
+            final ByteArrayOutputStream out = spill.buffer;
+            out.reset();
+            try {
+                final XMLStreamWriter writer = factory.createXMLStreamWriter(out, "UTF-8");
+                writer.writeCharacters("  ");
+                writer.writeStartElement("testsuite");
+                writer.writeAttribute("name", xmlText(name));
+                writeCounts(writer, entry.counts, entry.time);
+                for (TestResult result : results) {
+                    writer.writeCharacters("\n    ");
+                    if (result.status == Status.PASSED) {
+                        writer.writeEmptyElement("testcase");
+                        writeTestCase(writer, result);
+                        continue;
+                    }
+                    writer.writeStartElement("testcase");
+                    writeTestCase(writer, result);
+                    writer.writeCharacters("\n      ");
+                    if (result.status == Status.SKIPPED) {
+                        writer.writeEmptyElement("skipped");
+                        writer.writeAttribute("message", xmlText(result.message));
+                    } else {
+                        writer.writeStartElement(result.status == Status.FAILED ? "failure" : "error");
+                        writer.writeAttribute("message", xmlText(result.message));
+                        if (!result.detailMessage.isEmpty()) {
+                            writer.writeCharacters(xmlText(result.detailMessage.read()));
+                        }
+                        writer.writeEndElement();
+                    }
+                    writer.writeCharacters("\n    ");
+                    writer.writeEndElement();
+                }
+                writer.writeCharacters("\n  ");
+                writer.writeEndElement();
+                writer.writeCharacters("\n");
+                writer.close();
+            } catch (XMLStreamException e) {
+                throw new IOException("Failed to write the suite for " + report, e);
+            }
+            spill.append(entry, out);
+        }
+
+        /**
+         * Writes the document with the suites of all the spills in the order of the report paths.
+         *
+         * @param file the file to write
+         *
+         * @return the number of tests of each status
+         *
+         * @throws IOException if writing the document fails
+         */
+        int[] write(final Path file) throws IOException {
+            final List<SuiteEntry> entries = new ArrayList<>();
+            final int[] counts = new int[Status.values().length];
+            long time = 0L;
+            for (SuiteSpill spill : spills) {
+                spill.flush();
+                entries.addAll(spill.entries);
+            }
+            entries.sort(Comparator.comparing(entry -> entry.report));
+            for (SuiteEntry entry : entries) {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += entry.counts[i];
+                }
+                time += entry.time;
+            }
+            final Path parent = file.toAbsolutePath().getParent();
+            if (parent != null && Files.notExists(parent)) {
+                Files.createDirectories(parent);
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+                final XMLStreamWriter writer = factory.createXMLStreamWriter(out, "UTF-8");
+                writer.writeStartDocument("UTF-8", "1.0");
+                writer.writeCharacters("\n");
+                writer.writeStartElement("testsuites");
+                writeCounts(writer, counts, time);
+                writer.writeCharacters("\n");
+                // The suites are copied directly after the start element
+                writer.flush();
+                out.flush();
+                for (SuiteEntry entry : entries) {
+                    long position = entry.offset;
+                    final long end = entry.offset + entry.length;
+                    while (position < end) {
+                        position += entry.spill.channel.transferTo(position, end - position, channel);
+                    }
+                }
+                writer.writeEndElement();
+                writer.writeCharacters("\n");
+                writer.writeEndDocument();
+                writer.close();
+                out.flush();
+            } catch (XMLStreamException e) {
+                throw new IOException("Failed to write " + file, e);
+            }
+            return counts;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (SuiteSpill spill : spills) {
+                spill.close();
+            }
+        }
+
+        private static void writeTestCase(final XMLStreamWriter writer, final TestResult result) throws XMLStreamException {
+            writer.writeAttribute("name", xmlText(result.testName));
+            writer.writeAttribute("classname", xmlText(result.className));
+            writer.writeAttribute("time", formatTime(result.time));
+        }
+
+        private static void writeCounts(final XMLStreamWriter writer, final int[] counts, final long time) throws XMLStreamException {
+            int tests = 0;
+            for (int count : counts) {
+                tests += count;
+            }
+            writer.writeAttribute("tests", Integer.toString(tests));
+            writer.writeAttribute("failures", Integer.toString(counts[Status.FAILED.ordinal()]));
+            writer.writeAttribute("errors", Integer.toString(counts[Status.ERROR.ordinal()]));
+            writer.writeAttribute("skipped", Integer.toString(counts[Status.SKIPPED.ordinal()]));
+            writer.writeAttribute("time", formatTime(time));
+        }
+
+        /**
+         * Replaces the characters which are not allowed in an XML 1.0 document, like the escape character of ANSI
+         * colors in a stack trace, with the replacement character.
+         *
+         * @param value the value
+         *
+         * @return the value which can be written to the document
+         */
+        private static String xmlText(final String value) {
+            StringBuilder result = null;
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                final boolean valid = c == '\t' || c == '\n' || c == '\r' || (c >= 0x20 && c <= 0xD7FF) || (c >= 0xE000 && c <= 0xFFFD)
+                        || (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1)))
+                        || (Character.isLowSurrogate(c) && i > 0 && Character.isHighSurrogate(value.charAt(i - 1)));
+                if (!valid && result == null) {
+                    result = new StringBuilder(value.length()).append(value, 0, i);
+                }
+                if (result != null) {
+                    result.append(valid ? c : '\uFFFD');
+                }
+            }
+            return result == null ? value : result.toString();
+        }
+    }
+
+    /**
+     * The suites written by a single parsing thread. The suites are appended to a temporary file which is created
+     * when the first suite is written.
+     */
+    private static class SuiteSpill {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+        private final List<SuiteEntry> entries = new ArrayList<>();
+        private Path file;
+        private FileChannel channel;
+        private OutputStream out;
+        private long size;
+
+        private void append(final SuiteEntry entry, final ByteArrayOutputStream suite) throws IOException {
+            if (channel == null) {
+                file = Files.createTempFile("parsesurefire-merge", ".xml");
+                channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+            }
+            entry.spill = this;
+            entry.offset = size;
+            entry.length = suite.size();
+            suite.writeTo(out);
+            size += entry.length;
+            entries.add(entry);
+        }
+
+        private void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        private void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * The location and counts of a suite in a spill.
+     */
+    private static class SuiteEntry {
+        private final Path report;
+        private final int[] counts = new int[Status.values().length];
+        private long time;
+        private SuiteSpill spill;
+        private long offset;
+        private int length;
+
+        private SuiteEntry(final Path report) {
+            this.report = report;
+        }
+
+        private void add(final TestResult result) {
+            counts[result.status.ordinal()]++;
+            time += result.time;
+        }
+    }
+
+    /**
+     * A format pattern with {@code @|style text|@} markup compiled into segments, so a line can be rendered without
+     * formatting the pattern and parsing the markup again. The markup of each style is resolved once by rendering a
+     * probe with the {@link CommandLine.Help.Ansi}, a style which is defined by an argument is resolved once for each
+     * value.
+     * <p>
+     * Only {@code %s}, {@code %n} and {@code %%} are supported. A line is not rendered, and must be formatted instead,
+     * if the pattern is not supported or an argument could change the markup, so the output is always the same as
+     * formatting the pattern and then rendering the markup.
+     * </p>
+     */
+    private static class AnsiTemplate {
+        private static final AnsiTemplate UNSUPPORTED = new AnsiTemplate(null, null, 0, null);
+        // Ends the markup of a style which is defined by an argument
+        private static final Object STYLE_END = new Object();
+
+        private final CommandLine.Help.Ansi ansi;
+        // A String is appended as is, an Integer is the index of an argument and a Style starts the markup of a style
+        private final Object[] segments;
+        private final int argCount;
+        private final boolean[] styleArgs;
+        private final int styleCount;
+        private final Map<String, String[]> styles;
+
+        private AnsiTemplate(final CommandLine.Help.Ansi ansi, final Object[] segments, final int argCount, final boolean[] styleArgs) {
+            this.ansi = ansi;
+            this.segments = segments;
+            this.argCount = argCount;
+            this.styleArgs = styleArgs;
+            int styleCount = 0;
+            if (segments != null) {
+                for (Object segment : segments) {
+                    if (segment instanceof Style) {
+                        styleCount++;
+                    }
+                }
+            }
+            this.styleCount = styleCount;
+            this.styles = new HashMap<>();
+        }
+
+        /**
+         * Compiles the pattern.
+         *
+         * @param ansi    the ANSI mode used to render the markup
+         * @param pattern the format pattern
+         *
+         * @return the template, which renders nothing if the pattern is not supported
+         */
+        static AnsiTemplate compile(final CommandLine.Help.Ansi ansi, final String pattern) {
+            final List<Object> segments = new ArrayList<>();
+            final List<Boolean> styleArgs = new ArrayList<>();
+            final StringBuilder literal = new StringBuilder();
+            int i = 0;
+            while (i < pattern.length()) {
+                final int markup = pattern.indexOf("@|", i);
+                final int end = markup < 0 ? pattern.length() : markup;
+                if (!parse(pattern, i, end, literal, segments, styleArgs, false)) {
+                    return UNSUPPORTED;
+                }
+                if (markup < 0) {
+                    break;
+                }
+                final int close = pattern.indexOf("|@", markup + 2);
+                final int space = pattern.indexOf(' ', markup + 2);
+                // Nested or incomplete markup is left to the Ansi
+                if (close < 0 || space < 0 || space > close || space == markup + 2 || space + 1 == close
+                        || pattern.lastIndexOf("@|", close) != markup) {
+                    return UNSUPPORTED;
+                }
+                final List<Object> style = new ArrayList<>();
+                final StringBuilder styleLiteral = new StringBuilder();
+                if (!parse(pattern, markup + 2, space, styleLiteral, style, styleArgs, true)) {
+                    return UNSUPPORTED;
+                }
+                if (style.isEmpty()) {
+                    // The style is constant and is resolved now
+                    final String[] codes = probe(ansi, styleLiteral.toString());
+                    if (codes == null) {
+                        return UNSUPPORTED;
+                    }
+                    literal.append(codes[0]);
+                    if (!parse(pattern, space + 1, close, literal, segments, styleArgs, false)) {
+                        return UNSUPPORTED;
+                    }
+                    literal.append(codes[1]);
+                } else {
+                    if (styleLiteral.length() > 0) {
+                        style.add(styleLiteral.toString());
+                    }
+                    flush(literal, segments);
+                    segments.add(new Style(style.toArray()));
+                    if (!parse(pattern, space + 1, close, literal, segments, styleArgs, false)) {
+                        return UNSUPPORTED;
+                    }
+                    flush(literal, segments);
+                    segments.add(STYLE_END);
+                }
+                i = close + 2;
+            }
+            flush(literal, segments);
+            final boolean[] styleArgArray = new boolean[styleArgs.size()];
+            for (int arg = 0; arg < styleArgArray.length; arg++) {
+                styleArgArray[arg] = styleArgs.get(arg);
+            }
+            return new AnsiTemplate(ansi, segments.toArray(), styleArgArray.length, styleArgArray);
+        }
+
+        /**
+         * Renders the line with the arguments.
+         *
+         * @param out  the buffer to append the line to
+         * @param args the arguments of the pattern
+         *
+         * @return {@code true} if the line was rendered, {@code false} if nothing was appended and the line must be
+         * formatted instead
+         */
+        boolean render(final StringBuilder out, final Object[] args) {
+            if (segments == null || args.length < argCount) {
+                return false;
+            }
+            for (int i = 0; i < argCount; i++) {
+                final Object arg = args[i];
+                if (arg instanceof Formattable) {
+                    return false;
+                }
+                final String value = String.valueOf(arg);
+                // An argument could start, end or split the markup
+                if (value.isEmpty() || value.indexOf('@') >= 0 || value.indexOf('|') >= 0) {
+                    return false;
+                }
+                if (styleArgs[i] && hasWhitespace(value)) {
+                    return false;
+                }
+            }
+            // Resolve the styles defined by the arguments before anything is appended
+            final String[][] codes = styleCount == 0 ? null : new String[styleCount][];
+            int index = 0;
+            for (Object segment : segments) {
+                if (segment instanceof Style) {
+                    final StringBuilder style = new StringBuilder();
+                    for (Object part : ((Style) segment).parts) {
+                        style.append(part instanceof Integer ? String.valueOf(args[(Integer) part]) : part);
+                    }
+                    final String value = style.toString();
+                    String[] resolved = styles.get(value);
+                    if (resolved == null) {
+                        resolved = probe(ansi, value);
+                        if (resolved == null) {
+                            return false;
+                        }
+                        styles.put(value, resolved);
+                    }
+                    codes[index++] = resolved;
+                }
+            }
+            index = 0;
+            String suffix = null;
+            for (Object segment : segments) {
+                if (segment instanceof String) {
+                    out.append((String) segment);
+                } else if (segment instanceof Integer) {
+                    out.append(args[(Integer) segment]);
+                } else if (segment == STYLE_END) {
+                    out.append(suffix);
+                } else {
+                    out.append(codes[index][0]);
+                    suffix = codes[index++][1];
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Parses the format specifiers of the range, appending the literal text and adding a segment for each
+         * argument.
+         *
+         * @return {@code false} if the range has a format specifier which is not supported
+         */
+        private static boolean parse(final String pattern, final int start, final int end, final StringBuilder literal,
+                                     final List<Object> segments, final List<Boolean> styleArgs, final boolean style) {
+            int i = start;
+            while (i < end) {
+                final char c = pattern.charAt(i);
+                if (c != '%') {
+                    literal.append(c);
+                    i++;
+                    continue;
+                }
+                if (i + 1 >= end) {
+                    return false;
+                }
+                final char conversion = pattern.charAt(i + 1);
+                if (conversion == '%') {
+                    literal.append('%');
+                } else if (conversion == 'n' && !style) {
+                    literal.append(System.lineSeparator());
+                } else if (conversion == 's') {
+                    // Literal text is kept in the style, only the arguments are segments
+                    if (!style) {
+                        flush(literal, segments);
+                    } else if (literal.length() > 0) {
+                        segments.add(literal.toString());
+                        literal.setLength(0);
+                    }
+                    segments.add(styleArgs.size());
+                    styleArgs.add(style);
+                } else {
+                    return false;
+                }
+                i += 2;
+            }
+            return true;
+        }
+
+        private static void flush(final StringBuilder literal, final List<Object> segments) {
+            if (literal.length() > 0) {
+                segments.add(literal.toString());
+                literal.setLength(0);
+            }
+        }
+
+        /**
+         * Resolves the codes which start and end the style by rendering markup with a placeholder.
+         *
+         * @return the start and end codes of the style or {@code null} if the style is invalid
+         */
+        private static String[] probe(final CommandLine.Help.Ansi ansi, final String style) {
+            final String rendered;
+            try {
+                rendered = ansi.string("@|" + style + " \u0000|@");
+            } catch (RuntimeException e) {
+                // Formatting the line reports the invalid style
+                return null;
+            }
+            final int placeholder = rendered.indexOf('\u0000');
+            if (placeholder < 0) {
+                return null;
+            }
+            return new String[] {rendered.substring(0, placeholder), rendered.substring(placeholder + 1)};
+        }
+
+        private static boolean hasWhitespace(final String value) {
+            for (int i = 0; i < value.length(); i++) {
+                if (Character.isWhitespace(value.charAt(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static class Style {
+            private final Object[] parts;
+
+            private Style(final Object[] parts) {
+                this.parts = parts;
+            }
+        }
+    }
+
+    /**
+     * Reads the reports from a zip file. The central directory is enumerated once and each report is parsed in its
+     * own task from an independent entry stream. Nested zip files are streamed, without being extracted, and the
+     * reports found are parsed in parallel while the nested zip continues to be read.
+     * <p>
+     * The path of each report is the entry name resolved against the root directory. The path of a report in a
+     * nested zip is the entry name resolved against the path of the nested zip.
+     * </p>
+     */
+    private class ZipReportReader {
+        private final Path file;
+        private final ZipFile zip;
+        private final ParseContext<?> context;
+        private final PathMatcher pattern;
+        private final ExcludeFilter filter;
+        private final InFlightBudget budget;
+
+        private ZipReportReader(final Path file, final ZipFile zip, final ParseContext<?> context) {
+            this.file = file;
+            this.zip = zip;
+            this.context = context;
+            this.pattern = FileSystems.getDefault().getPathMatcher(REPORT_GLOB);
+            this.filter = new ExcludeFilter(FileSystems.getDefault());
+            this.budget = new InFlightBudget(maxInFlight);
+        }
+
+        /**
+         * Creates the task which reads the zip file.
+         *
+         * @return the task
+         */
+        RecursiveAction task() {
+            return new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    final String key = file.toAbsolutePath().toUri().toString();
+                    final Path root = Path.of("/");
+                    final List<RecursiveAction> tasks = new ArrayList<>();
+                    final Enumeration<? extends ZipEntry> entries = zip.entries();
+                    while (entries.hasMoreElements()) {
+                        final ZipEntry entry = entries.nextElement();
+                        final Path relative = Path.of(entry.getName()).normalize();
+                        if (entry.isDirectory() || filter.isParentExcluded(relative)) {
+                            continue;
+                        }
+                        final Path path = root.resolve(relative);
+                        if (isReport(path)) {
+                            tasks.add(new ParseTask(context, new ZipEntryReportSource(zip, entry, path, key + "!/" + entry.getName())));
+                        } else if (isArchive(path)) {
+                            tasks.add(new RecursiveAction() {
+                                @Override
+                                protected void compute() {
+                                    try (InputStream in = zip.getInputStream(entry)) {
+                                        readNested(path, relative, key + "!/" + entry.getName(), in);
+                                    } catch (IOException e) {
+                                        throw new UncheckedIOException(e);
+                                    }
+                                }
+                            });
+                        }
+                    }
+                    invokeAll(tasks);
+                }
+            };
+        }
+
+        private void readNested(final Path parent, final Path relativeParent, final String key, final InputStream in) throws IOException {
+            final List<RecursiveAction> tasks = new ArrayList<>();
+            // Do not close the stream as it's owned by the caller
+            final ZipInputStream zin = new ZipInputStream(in);
+            ZipEntry entry;
+            while ((entry = zin.getNextEntry()) != null) {
+                final Path relative = relativeParent.resolve(entry.getName()).normalize();
+                if (entry.isDirectory() || filter.isParentExcluded(relative)) {
+                    continue;
+                }
+                final Path path = parent.resolve(entry.getName()).normalize();
+                final String entryKey = key + "!/" + entry.getName();
+                if (isReport(path)) {
+                    if (entry.getSize() >= 0) {
+                        // Acquire the budget before reading the entry to bound the memory used
+                        final int permits = budget.acquire(entry.getSize());
+                        final byte[] bytes;
+                        try {
+                            bytes = zin.readAllBytes();
+                        } catch (IOException | RuntimeException e) {
+                            budget.release(permits);
+                            throw e;
+                        }
+                        tasks.add(budget.fork(context, new BytesReportSource(path, entryKey, bytes, entry.getCrc()), permits));
+                    } else {
+                        // The size of an entry written with a data descriptor is not known until it's read
+                        final BytesReportSource source = new BytesReportSource(path, entryKey, zin.readAllBytes(), entry.getCrc());
+                        tasks.add(budget.fork(context, source));
+                    }
+                } else if (isArchive(path)) {
+                    readNested(path, relative, entryKey, zin);
+                }
+            }
+            tasks.forEach(RecursiveAction::join);
+        }
+
+        private boolean isReport(final Path path) {
+            final Path fileName = path.getFileName();
+            return fileName != null && pattern.matches(fileName);
+        }
+
+        private boolean isArchive(final Path path) {
+            final Path fileName = path.getFileName();
+            return fileName != null && fileName.toString().toLowerCase(Locale.ROOT).endsWith(".zip");
+        }
+    }
+
+    /**
+     * Reads the reports from a tar or a gzip compressed tar archive in a single pass. Each report is read into memory
+     * and handed to a worker to be parsed while the archive continues to be decompressed. The memory used by the
+     * reports waiting to be parsed is bounded by the {@link InFlightBudget}.
+     */
+    private class TarReportReader {
+        private final Path file;
+        private final ArchiveType archiveType;
+        private final ParseContext<?> context;
+        private final PathMatcher pattern;
+        private final ExcludeFilter filter;
+        private final InFlightBudget budget;
+
+        private TarReportReader(final Path file, final ArchiveType archiveType, final ParseContext<?> context) {
+            this.file = file;
+            this.archiveType = archiveType;
+            this.context = context;
+            this.pattern = FileSystems.getDefault().getPathMatcher(REPORT_GLOB);
+            this.filter = new ExcludeFilter(FileSystems.getDefault());
+            this.budget = new InFlightBudget(maxInFlight);
+        }
+
+        /**
+         * Creates the task which reads the archive.
+         *
+         * @return the task
+         */
+        RecursiveAction task() {
+            return new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    try {
+                        read();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+        }
+
+        private void read() throws IOException {
+            final String key = file.toAbsolutePath().toUri().toString();
+            final Path root = Path.of("/");
+            final List<RecursiveAction> tasks = new ArrayList<>();
+            InputStream in = new BufferedInputStream(Files.newInputStream(file));
+            if (archiveType == ArchiveType.TAR_GZ) {
+                in = new GzipCompressorInputStream(in, true);
+            }
+            try (TarArchiveInputStream tar = new TarArchiveInputStream(in)) {
+                TarArchiveEntry entry;
+                while ((entry = tar.getNextTarEntry()) != null) {
+                    final Path relative = Path.of(entry.getName()).normalize();
+                    if (!entry.isFile() || filter.isParentExcluded(relative)) {
+                        continue;
+                    }
+                    final Path path = root.resolve(relative);
+                    final Path fileName = path.getFileName();
+                    if (fileName != null && pattern.matches(fileName)) {
+                        // Acquire the budget before reading the entry to bound the memory used
+                        final int permits = budget.acquire(entry.getSize());
+                        final byte[] bytes;
+                        try {
+                            bytes = tar.readAllBytes();
+                        } catch (IOException | RuntimeException e) {
+                            budget.release(permits);
+                            throw e;
+                        }
+                        final ReportSource source = new BytesReportSource(path, key + "!/" + entry.getName(), bytes,
+                                entry.getLastModifiedTime().toMillis());
+                        tasks.add(budget.fork(context, source, permits));
+                    }
+                }
+            } finally {
+                tasks.forEach(RecursiveAction::join);
+            }
+        }
+    }
+
+    /**
+     * Bounds the number of bytes of archive entries held in memory while waiting to be parsed. While waiting for the
+     * budget the reader executes the queued tasks itself. It only blocks, via
+     * {@link ForkJoinPool#managedBlock(ForkJoinPool.ManagedBlocker)}, once there are no queued tasks left meaning the
+     * budget is held by tasks other workers are executing.
+     */
+    private static class InFlightBudget {
+        private final int maxPermits;
+        private final Semaphore permits;
+
+        /**
+         * Creates a new budget.
+         *
+         * @param megabytes the maximum number of megabytes, must be greater than 0, each permit represents a kilobyte
+         */
+        private InFlightBudget(final int megabytes) {
+            this.maxPermits = (int) Math.min(Integer.MAX_VALUE, megabytes * 1024L);
+            this.permits = new Semaphore(maxPermits);
+        }
+
+        /**
+         * Acquires the permits for the number of bytes blocking until they are available. An entry larger than the
+         * budget acquires the whole budget.
+         *
+         * @param bytes the number of bytes, if unknown a single permit is acquired
+         *
+         * @return the number of permits acquired
+         */
+        int acquire(final long bytes) {
+            final int required = (int) Math.max(1L, Math.min(maxPermits, (bytes + 1023L) / 1024L));
+            while (!permits.tryAcquire(required)) {
+                if (!ParseTask.executeQueued()) {
+                    block(required);
+                    break;
+                }
+            }
+            return required;
+        }
+
+        private void block(final int required) {
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    private boolean acquired;
+
+                    @Override
+                    public boolean block() throws InterruptedException {
+                        if (!acquired) {
+                            permits.acquire(required);
+                            acquired = true;
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isReleasable() {
+                        if (!acquired) {
+                            acquired = permits.tryAcquire(required);
+                        }
+                        return acquired;
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted waiting to read an archive entry");
+            }
+        }
+
+        void release(final int count) {
+            permits.release(count);
+        }
+
+        /**
+         * Forks a task to parse the source. The budget for the bytes of the source is acquired before the task is
+         * forked.
+         *
+         * @param context the context used to parse the source
+         * @param source  the source to parse
+         *
+         * @return the forked task
+         */
+        RecursiveAction fork(final ParseContext<?> context, final BytesReportSource source) {
+            return fork(context, source, acquire(source.size()));
+        }
+
+        /**
+         * Forks a task to parse the source which releases the permits once parsed, when the source is no longer
+         * referenced by the task.
+         *
+         * @param context the context used to parse the source
+         * @param source  the source to parse
+         * @param count   the number of permits to release
+         *
+         * @return the forked task
+         */
+        RecursiveAction fork(final ParseContext<?> context, final ReportSource source, final int count) {
+            final RecursiveAction task = new ParseTask(context, source, () -> release(count));
+            task.fork();
+            return task;
+        }
+    }
+
+    /**
+     * A task which parses a single report.
+     */
+    private static class ParseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ParseContext<?> context;
+        private final Runnable onComplete;
+        private ReportSource source;
+
+        private ParseTask(final ParseContext<?> context, final ReportSource source) {
+            this(context, source, null);
+        }
+
+        private ParseTask(final ParseContext<?> context, final ReportSource source, final Runnable onComplete) {
+            this.context = context;
+            this.source = source;
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                context.parse(source);
+            } finally {
+                // Completed tasks may be held until the archive is read, the source must not keep its bytes reachable
+                source = null;
+                if (onComplete != null) {
+                    onComplete.run();
+                }
+            }
+        }
+
+        /**
+         * Executes a task queued in the pool of the current worker.
+         *
+         * @return {@code true} if a task was executed, {@code false} if there were no queued tasks
+         */
+        static boolean executeQueued() {
+            final ForkJoinTask<?> task = pollTask();
+            if (task == null) {
+                return false;
+            }
+            task.quietlyInvoke();
+            return true;
+        }
+    }
+
+    /**
+     * The type of archive passed as the file to parse.
+     */
+    private enum ArchiveType {
+        NONE,
+        ZIP,
+        TAR,
+        TAR_GZ;
+
+        /**
+         * Determines the type of the archive from the leading bytes of the file.
+         *
+         * @param file the file to check
+         *
+         * @return the archive type
+         *
+         * @throws IOException if an error occurs reading the file
+         */
+        static ArchiveType of(final Path file) throws IOException {
+            try (InputStream in = Files.newInputStream(file)) {
+                // A tar header is 512 bytes
+                final byte[] bytes = new byte[512];
+                final int len = in.readNBytes(bytes, 0, bytes.length);
+                if (len >= 4) {
+                    // The first 4 bytes are the header, we'll check to see if it's a zip file
+                    final int header = (bytes[0] & 0xFF) + ((bytes[1] & 0xFF) << 8) + ((bytes[2] & 0xFF) << 16) + ((bytes[3] & 0xFF) << 24);
+                    if (0x04034b50 == header) {
+                        return ZIP;
+                    }
+                }
+                if (GzipCompressorInputStream.matches(bytes, len)) {
+                    return TAR_GZ;
+                }
+                if (TarArchiveInputStream.matches(bytes, len)) {
+                    return TAR;
+                }
+            }
+            return NONE;
+        }
+    }
+
+    /**
+     * Filters directories which match the {@code --exclude-dir} patterns.
+     */
+    private class ExcludeFilter {
+        private final List<PathMatcher> excludes;
+
+        private ExcludeFilter(final FileSystem fs) {
+            if (excludeDirs == null || excludeDirs.isEmpty()) {
+                excludes = List.of();
+            } else {
+                final List<PathMatcher> excludes = new ArrayList<>();
+                for (String exclude : excludeDirs) {
+                    excludes.add(fs.getPathMatcher("glob:" + exclude));
+                    excludes.add(fs.getPathMatcher("glob:**/" + exclude));
+                }
+                this.excludes = List.copyOf(excludes);
+            }
+        }
+
+        /**
+         * Checks if the directory is excluded.
+         *
+         * @param dir the directory relative to the root being parsed
+         *
+         * @return {@code true} if the directory should not be descended into
+         */
+        boolean isExcluded(final Path dir) {
+            for (PathMatcher exclude : excludes) {
+                if (exclude.matches(dir)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Checks if any of the parent directories of the file are excluded.
+         *
+         * @param file the file relative to the root being parsed
+         *
+         * @return {@code true} if a parent directory is excluded
+         */
+        boolean isParentExcluded(final Path file) {
+            if (excludes.isEmpty()) {
+                return false;
+            }
+            for (Path dir = file.getParent(); dir != null; dir = dir.getParent()) {
+                if (isExcluded(dir)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A report to be parsed.
+     */
+    private interface ReportSource {
+
+        /**
+         * Creates a source for a file.
+         *
+         * @param file the file
+         *
+         * @return the source
+         */
+        static ReportSource of(final Path file) {
+            return new FileReportSource(file);
+        }
+
+        /**
+         * The path of the report. This is used to identify and group the results and may not exist on a file system.
+         *
+         * @return the path of the report
+         */
+        Path path();
+
+        /**
+         * A key which uniquely identifies the report across invocations.
+         *
+         * @return the key
+         */
+        String key();
+
+        /**
+         * Opens a new stream to read the report.
+         *
+         * @return the stream
+         *
+         * @throws IOException if the stream could not be opened
+         */
+        InputStream open() throws IOException;
+
+        /**
+         * The size of the report in bytes.
+         *
+         * @return the size
+         *
+         * @throws IOException if the size could not be determined
+         */
+        long size() throws IOException;
+
+        /**
+         * A value which changes when the content of the report changes. For a file this is the last modified time,
+         * for an archive entry this is the CRC.
+         *
+         * @return the stamp
+         *
+         * @throws IOException if the stamp could not be determined
+         */
+        long stamp() throws IOException;
+
+        /**
+         * Indicates whether the report can be read again after parsing has completed. If {@code true} the detail
+         * messages are not kept in memory, but read from the report when they are printed.
+         *
+         * @return {@code true} if the report can be read again
+         */
+        default boolean isRereadable() {
+            return false;
+        }
+
+        /**
+         * Returns the content of the report. The default reads the full stream into memory.
+         *
+         * @return the content of the report
+         *
+         * @throws IOException if an error occurs reading the report
+         */
+        default ByteBuffer bytes() throws IOException {
+            try (InputStream in = open()) {
+                return ByteBuffer.wrap(in.readAllBytes());
+            }
+        }
+    }
+
+    private static class FileReportSource implements ReportSource {
+        private final Path file;
+        private BasicFileAttributes attributes;
+
+        private FileReportSource(final Path file) {
+            this.file = file;
+        }
+
+        @Override
+        public Path path() {
+            return file;
+        }
+
+        @Override
+        public String key() {
+            return file.toAbsolutePath().toUri().toString();
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return Files.newInputStream(file);
+        }
+
+        @Override
+        public long size() throws IOException {
+            return attributes().size();
+        }
+
+        @Override
+        public long stamp() throws IOException {
+            return attributes().lastModifiedTime().toMillis();
+        }
+
+        @Override
+        public boolean isRereadable() {
+            return true;
+        }
+
+        @Override
+        public ByteBuffer bytes() throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("The report " + file + " is too large to be mapped.");
+                }
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+            }
+        }
+
+        private BasicFileAttributes attributes() throws IOException {
+            if (attributes == null) {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            }
+            return attributes;
+        }
+    }
+
+    private static class ZipEntryReportSource implements ReportSource {
+        private final ZipFile zip;
+        private final ZipEntry entry;
+        private final Path path;
+        private final String key;
+
+        private ZipEntryReportSource(final ZipFile zip, final ZipEntry entry, final Path path, final String key) {
+            this.zip = zip;
+            this.entry = entry;
+            this.path = path;
+            this.key = key;
+        }
+
+        @Override
+        public Path path() {
+            return path;
+        }
+
+        @Override
+        public String key() {
+            return key;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return zip.getInputStream(entry);
+        }
+
+        @Override
+        public long size() {
+            return entry.getSize();
+        }
+
+        @Override
+        public long stamp() {
+            return entry.getCrc();
+        }
+    }
+
+    private static class BytesReportSource implements ReportSource {
+        private final Path path;
+        private final String key;
+        private final byte[] bytes;
+        private final long stamp;
+
+        private BytesReportSource(final Path path, final String key, final byte[] bytes, final long stamp) {
+            this.path = path;
+            this.key = key;
+            this.bytes = bytes;
+            this.stamp = stamp;
+        }
+
+        @Override
+        public Path path() {
+            return path;
+        }
+
+        @Override
+        public String key() {
+            return key;
+        }
+
+        @Override
+        public InputStream open() {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public ByteBuffer bytes() {
+            return ByteBuffer.wrap(bytes);
+        }
+
+        @Override
+        public long size() {
+            return bytes.length;
+        }
+
+        @Override
+        public long stamp() {
+            return stamp;
+        }
+    }
+
+    /**
+     * Merges the shards accumulated by each worker. The shards are split in half and each half is merged in
+     * parallel until a single shard remains.
+     *
+     * @param <T> the type of the results
+     */
+    private static class ShardMerger<T> extends RecursiveTask<Map<Path, T>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Map<Path, T>> shards;
+        private final BiConsumer<T, T> merger;
+
+        private ShardMerger(final List<Map<Path, T>> shards, final BiConsumer<T, T> merger) {
+            this.shards = shards;
+            this.merger = merger;
+        }
+
+        @Override
+        protected Map<Path, T> compute() {
+            if (shards.isEmpty()) {
+                return Map.of();
+            }
+            if (shards.size() == 1) {
+                return shards.get(0);
+            }
+            final int mid = shards.size() / 2;
+            final ShardMerger<T> right = new ShardMerger<>(shards.subList(mid, shards.size()), merger);
+            right.fork();
+            final Map<Path, T> result = new ShardMerger<>(shards.subList(0, mid), merger).compute();
+            for (var entry : right.join().entrySet()) {
+                result.merge(entry.getKey(), entry.getValue(), (current, other) -> {
+                    merger.accept(current, other);
+                    return current;
+                });
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A columnar store for test results. Class names, test names and files are interned into dictionaries and each
+     * result is stored as a row in primitive arrays. Messages are only allocated once a result with a message is
+     * added. Duplicate results, results with the same class name, test name and status, are ignored.
+     * <p>
+     * Rows are accessed by their index and {@link #get(int)} creates a {@link TestResult} view of the row.
+     * </p>
+     * <p>
+     * A store is not thread-safe. Each worker accumulates into its own store and the stores are merged with
+     * {@link #addAll(ResultStore)}.
+     * </p>
+     */
+    private static class ResultStore {
+        private static final Status[] STATUSES = Status.values();
+        private static final int INITIAL_CAPACITY = 64;
+
+        private final Interner<String> names = new Interner<>();
+        private final Interner<Path> files = new Interner<>();
+        private final int[] counts = new int[STATUSES.length];
+        private int[] fileIds = new int[INITIAL_CAPACITY];
+        private int[] titleIds = new int[INITIAL_CAPACITY];
+        private int[] classNameIds = new int[INITIAL_CAPACITY];
+        private int[] testNameIds = new int[INITIAL_CAPACITY];
+        private byte[] statuses = new byte[INITIAL_CAPACITY];
+        private long[] times = new long[INITIAL_CAPACITY];
+        private String[] messages;
+        private DetailMessage[] detailMessages;
+        private FailureSignature[] signatures;
+        // Open addressing hash table of row + 1, 0 is an empty slot
+        private int[] table = new int[INITIAL_CAPACITY * 2];
+        private int size;
+        // The durations of the tests which are not skipped, the class histograms are indexed by the name id
+        private DurationHistogram histogram;
+        private DurationHistogram[] classHistograms;
+
+        ResultStore() {
+            this(false);
+        }
+
+        /**
+         * Creates a new store.
+         *
+         * @param histograms {@code true} to record the durations of the tests added in histograms
+         */
+        ResultStore(final boolean histograms) {
+            histogram = histograms ? new DurationHistogram() : null;
+            classHistograms = histograms ? new DurationHistogram[INITIAL_CAPACITY] : null;
+        }
+
+        /**
+         * Adds the result to the store.
+         *
+         * @param result the result to add
+         *
+         * @return {@code true} if the result was added, {@code false} if it was a duplicate
+         */
+        boolean add(final TestResult result) {
+            return addRow(files.intern(result.file), names.intern(result.title), names.intern(result.className),
+                    names.intern(result.testName), result.status.ordinal(), result.time, result.message, result.detailMessage,
+                    result.signature);
+        }
+
+        /**
+         * Adds all the results from the other store to this store. The dictionaries of the other store are mapped to
+         * the ids of this store once, the rows are then copied without creating any {@link TestResult} views.
+         *
+         * @param other the store to add the results from
+         */
+        void addAll(final ResultStore other) {
+            final int[] nameIds = names.internAll(other.names);
+            final int[] fileIdMap = files.internAll(other.files);
+            ensureCapacity(size + other.size);
+            for (int row = 0; row < other.size; row++) {
+                addRow(fileIdMap[other.fileIds[row]], nameIds[other.titleIds[row]], nameIds[other.classNameIds[row]],
+                        nameIds[other.testNameIds[row]], other.statuses[row], other.times[row],
+                        other.messages == null ? null : other.messages[row],
+                        other.detailMessages == null ? null : other.detailMessages[row],
+                        other.signatures == null ? null : other.signatures[row]);
+            }
+        }
+
+        /**
+         * Returns the number of rows in the store.
+         *
+         * @return the number of rows
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Removes all the rows and the dictionaries. The capacity of the columns is kept so the store can be reused.
+         */
+        void clear() {
+            names.clear();
+            files.clear();
+            Arrays.fill(counts, 0);
+            Arrays.fill(table, 0);
+            messages = null;
+            detailMessages = null;
+            signatures = null;
+            if (histogram != null) {
+                histogram = new DurationHistogram();
+                classHistograms = new DurationHistogram[INITIAL_CAPACITY];
+            }
+            size = 0;
+        }
+
+        /**
+         * Finds the result already stored which is equal to the result passed in.
+         *
+         * @param result the result to find
+         *
+         * @return the stored result or {@code null} if not found
+         */
+        TestResult find(final TestResult result) {
+            final int classNameId = names.find(result.className);
+            final int testNameId = names.find(result.testName);
+            if (classNameId < 0 || testNameId < 0) {
+                return null;
+            }
+            final int row = findRow(classNameId, testNameId, result.status.ordinal());
+            return row < 0 ? null : get(row);
+        }
+
+        /**
+         * Returns the number of results for the status.
+         *
+         * @param status the status
+         *
+         * @return the number of results
+         */
+        int count(final Status status) {
+            return counts[status.ordinal()];
+        }
+
+        /**
+         * Creates a view of the row.
+         *
+         * @param row the row
+         *
+         * @return the test result for the row
+         */
+        TestResult get(final int row) {
+            return new TestResult(files.get(fileIds[row]), STATUSES[statuses[row]], names.get(titleIds[row]),
+                    names.get(classNameIds[row]), names.get(testNameIds[row]), times[row],
+                    messages == null ? null : messages[row], detailMessages == null ? null : detailMessages[row],
+                    signatures == null ? null : signatures[row]);
+        }
+
+        /**
+         * Returns the rows with one of the statuses in the order to print them.
+         * <p>
+         * For {@link SortBy#status} the rows are ordered by the class name and then the test name. For
+         * {@link SortBy#name} the rows are ordered by the class name, the status and then the test name. For
+         * {@link SortBy#time} the rows are ordered by the time, the status, the class name and then the test name.
+         * </p>
+         *
+         * @param include the statuses to include
+         * @param sortBy  the sort order
+         *
+         * @return the sorted rows
+         */
+        int[] sortedRows(final Set<Status> include, final SortBy sortBy) {
+            int len = 0;
+            for (Status status : include) {
+                len += counts[status.ordinal()];
+            }
+            int[] rows = new int[len];
+            int i = 0;
+            for (int row = 0; row < size; row++) {
+                if (include.contains(STATUSES[statuses[row]])) {
+                    rows[i++] = row;
+                }
+            }
+            // A store read from a partial summary counts more tests than it has rows
+            if (i < len) {
+                rows = Arrays.copyOf(rows, i);
+            }
+            final int[] rank = names.rank(Comparator.naturalOrder());
+            final IntBinaryOperator byName = (a, b) -> {
+                final int result = Integer.compare(rank[classNameIds[a]], rank[classNameIds[b]]);
+                if (result != 0) {
+                    return result;
+                }
+                return Integer.compare(rank[testNameIds[a]], rank[testNameIds[b]]);
+            };
+            final IntBinaryOperator byStatus = (a, b) -> Integer.compare(statuses[a], statuses[b]);
+            final IntBinaryOperator comparator;
+            if (sortBy == SortBy.name) {
+                comparator = (a, b) -> {
+                    int result = Integer.compare(rank[classNameIds[a]], rank[classNameIds[b]]);
+                    if (result == 0) {
+                        result = byStatus.applyAsInt(a, b);
+                    }
+                    return result == 0 ? byName.applyAsInt(a, b) : result;
+                };
+            } else if (sortBy == SortBy.time) {
+                comparator = (a, b) -> {
+                    // Compare the printed precision, times which print the same are ordered by the status and name
+                    int result = Long.compare(toMillis(times[a]), toMillis(times[b]));
+                    if (result == 0) {
+                        result = byStatus.applyAsInt(a, b);
+                    }
+                    return result == 0 ? byName.applyAsInt(a, b) : result;
+                };
+            } else {
+                comparator = (a, b) -> {
+                    final int result = byName.applyAsInt(a, b);
+                    return result == 0 ? byStatus.applyAsInt(a, b) : result;
+                };
+            }
+            sort(rows, new int[rows.length], 0, rows.length, comparator);
+            return rows;
+        }
+
+        /**
+         * Writes the partial summary of the store. The summary contains the counts and the histograms of all the
+         * tests, but only the rows of the failed and errored tests. The store must record histograms.
+         *
+         * @param out the output to write to
+         *
+         * @throws IOException if writing fails or a detail message cannot be read
+         */
+        void writePartial(final DataOutputStream out) throws IOException {
+            for (int count : counts) {
+                out.writeInt(count);
+            }
+            histogram.write(out);
+            final int[] classIds = histogramClassIds();
+            out.writeInt(classIds.length);
+            for (int id : classIds) {
+                ParseCache.writeString(out, names.get(id));
+                classHistograms[id].write(out);
+            }
+            out.writeInt(counts[Status.FAILED.ordinal()] + counts[Status.ERROR.ordinal()]);
+            for (int row = 0; row < size; row++) {
+                if (statuses[row] != Status.FAILED.ordinal() && statuses[row] != Status.ERROR.ordinal()) {
+                    continue;
+                }
+                ParseCache.writeString(out, files.get(fileIds[row]).toString());
+                ParseCache.writeString(out, names.get(titleIds[row]));
+                ParseCache.writeString(out, names.get(classNameIds[row]));
+                ParseCache.writeString(out, names.get(testNameIds[row]));
+                out.writeByte(statuses[row]);
+                out.writeLong(times[row]);
+                final String message = messages == null ? null : messages[row];
+                out.writeBoolean(message != null);
+                if (message != null) {
+                    ParseCache.writeString(out, message);
+                }
+                final DetailMessage detailMessage = detailMessages == null ? null : detailMessages[row];
+                out.writeBoolean(detailMessage != null);
+                if (detailMessage != null) {
+                    ParseCache.writeString(out, detailMessage.read());
+                }
+                final FailureSignature signature = signatures == null ? null : signatures[row];
+                out.writeBoolean(signature != null);
+                if (signature != null) {
+                    out.writeLong(signature.hash);
+                    ParseCache.writeString(out, signature.trace);
+                }
+            }
+        }
+
+        /**
+         * Adds a partial summary written with {@link #writePartial(DataOutputStream)} to the store. The counts and
+         * histograms are added, the rows are only added if they are not already in the store. The store must record
+         * histograms and can only be used for printing as it only contains the rows of the failed and errored tests.
+         *
+         * @param in the input to read from
+         *
+         * @throws IOException if reading fails
+         */
+        void addPartial(final DataInputStream in) throws IOException {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += in.readInt();
+            }
+            histogram.add(DurationHistogram.read(in));
+            final int classes = in.readInt();
+            for (int i = 0; i < classes; i++) {
+                final int classNameId = names.intern(ParseCache.readString(in));
+                classHistogram(classNameId).add(DurationHistogram.read(in));
+            }
+            final int rows = in.readInt();
+            ensureCapacity(size + rows);
+            for (int i = 0; i < rows; i++) {
+                final int fileId = files.intern(Path.of(ParseCache.readString(in)));
+                final int titleId = names.intern(ParseCache.readString(in));
+                final int classNameId = names.intern(ParseCache.readString(in));
+                final int testNameId = names.intern(ParseCache.readString(in));
+                final int status = in.readByte();
+                final long time = in.readLong();
+                final String message = in.readBoolean() ? ParseCache.readString(in) : null;
+                final DetailMessage detailMessage = in.readBoolean() ? DetailMessage.of(ParseCache.readString(in)) : null;
+                final FailureSignature signature = in.readBoolean() ? new FailureSignature(in.readLong(), ParseCache.readString(in)) : null;
+                if (findRow(classNameId, testNameId, status) < 0) {
+                    appendRow(fileId, titleId, classNameId, testNameId, status, time, message, detailMessage, signature);
+                }
+            }
+        }
+
+        /**
+         * Returns the durations of all the tests which were not skipped.
+         *
+         * @return the histogram
+         */
+        DurationHistogram histogram() {
+            return histogram;
+        }
+
+        /**
+         * Returns the durations of the tests in the test class.
+         *
+         * @param classNameId the name id of the class
+         *
+         * @return the histogram
+         */
+        DurationHistogram histogram(final int classNameId) {
+            return classHistograms[classNameId];
+        }
+
+        /**
+         * Returns the name ids of the test classes which have a histogram ordered by the class name.
+         *
+         * @return the name ids
+         */
+        int[] histogramClassIds() {
+            int len = 0;
+            final int[] ids = new int[Math.min(classHistograms.length, names.size())];
+            for (int id = 0; id < ids.length; id++) {
+                if (classHistograms[id] != null) {
+                    ids[len++] = id;
+                }
+            }
+            final int[] rank = names.rank(Comparator.naturalOrder());
+            final int[] result = Arrays.copyOf(ids, len);
+            sort(result, new int[len], 0, len, (a, b) -> Integer.compare(rank[a], rank[b]));
+            return result;
+        }
+
+        String name(final int id) {
+            return names.get(id);
+        }
+
+        /**
+         * Selects the slowest rows with a bounded heap rather than sorting all the rows.
+         *
+         * @param include the statuses to include
+         * @param limit   the maximum number of rows to return
+         *
+         * @return the rows ordered from the slowest, rows with the same printed time are ordered by status and name
+         */
+        int[] slowestRows(final Set<Status> include, final int limit) {
+            final BoundedHeap heap = new BoundedHeap(Math.min(limit, size), (a, b) -> {
+                int result = Long.compare(toMillis(times[b]), toMillis(times[a]));
+                if (result == 0) {
+                    result = Integer.compare(statuses[a], statuses[b]);
+                }
+                if (result == 0) {
+                    result = names.get(classNameIds[a]).compareTo(names.get(classNameIds[b]));
+                }
+                return result == 0 ? names.get(testNameIds[a]).compareTo(names.get(testNameIds[b])) : result;
+            });
+            for (int row = 0; row < size; row++) {
+                if (include.contains(STATUSES[statuses[row]])) {
+                    heap.offer(row);
+                }
+            }
+            return heap.toSortedArray();
+        }
+
+        /**
+         * Selects the test classes with the largest total time of the included tests.
+         *
+         * @param include the statuses to include
+         * @param limit   the maximum number of classes to return
+         *
+         * @return the classes ordered from the slowest
+         */
+        List<ClassTime> slowestClasses(final Set<Status> include, final int limit) {
+            // Indexed by the name id, only the ids used as class names will have tests
+            final long[] classTimes = new long[names.size()];
+            final int[] classTests = new int[names.size()];
+            for (int row = 0; row < size; row++) {
+                if (include.contains(STATUSES[statuses[row]])) {
+                    classTimes[classNameIds[row]] += times[row];
+                    classTests[classNameIds[row]]++;
+                }
+            }
+            final BoundedHeap heap = new BoundedHeap(Math.min(limit, classTests.length), (a, b) -> {
+                final int result = Long.compare(toMillis(classTimes[b]), toMillis(classTimes[a]));
+                return result == 0 ? names.get(a).compareTo(names.get(b)) : result;
+            });
+            for (int id = 0; id < classTests.length; id++) {
+                if (classTests[id] > 0) {
+                    heap.offer(id);
+                }
+            }
+            final int[] ids = heap.toSortedArray();
+            final List<ClassTime> result = new ArrayList<>(ids.length);
+            for (int id : ids) {
+                result.add(new ClassTime(names.get(id), classTests[id], classTimes[id]));
+            }
+            return result;
+        }
+
+        /**
+         * Groups the rows with a failure signature by the signature. Each cluster is represented by the test with the
+         * lowest class and test name so the output does not depend on the order the reports were parsed in.
+         *
+         * @param include the statuses to include
+         *
+         * @return the clusters ordered by the number of tests, the largest first, and then the representative test
+         */
+        List<FailureCluster> failureClusters(final Set<Status> include) {
+            if (signatures == null) {
+                return List.of();
+            }
+            final int[] rank = names.rank(Comparator.naturalOrder());
+            final IntBinaryOperator byName = (a, b) -> {
+                final int result = Integer.compare(rank[classNameIds[a]], rank[classNameIds[b]]);
+                return result == 0 ? Integer.compare(rank[testNameIds[a]], rank[testNameIds[b]]) : result;
+            };
+            final Map<Long, int[]> clusters = new HashMap<>();
+            for (int row = 0; row < size; row++) {
+                if (signatures[row] == null || !include.contains(STATUSES[statuses[row]])) {
+                    continue;
+                }
+                // The representative row is stored after the counts for each status
+                final int[] cluster = clusters.computeIfAbsent(signatures[row].hash, key -> {
+                    final int[] value = new int[STATUSES.length + 1];
+                    value[STATUSES.length] = -1;
+                    return value;
+                });
+                if (cluster[STATUSES.length] < 0 || byName.applyAsInt(row, cluster[STATUSES.length]) < 0) {
+                    cluster[STATUSES.length] = row;
+                }
+                cluster[statuses[row]]++;
+            }
+            final List<FailureCluster> result = new ArrayList<>(clusters.size());
+            for (int[] cluster : clusters.values()) {
+                final int row = cluster[STATUSES.length];
+                result.add(new FailureCluster(signatures[row], names.get(classNameIds[row]), names.get(testNameIds[row]),
+                        Arrays.copyOf(cluster, STATUSES.length)));
+            }
+            result.sort(Comparator.comparingInt(FailureCluster::total).reversed()
+                    .thenComparing(cluster -> cluster.className)
+                    .thenComparing(cluster -> cluster.testName));
+            return result;
+        }
+
+        private boolean addRow(final int fileId, final int titleId, final int classNameId, final int testNameId, final int status,
+                               final long time, final String message, final DetailMessage detailMessage,
+                               final FailureSignature signature) {
+            if (findRow(classNameId, testNameId, status) >= 0) {
+                return false;
+            }
+            if (histogram != null && status != Status.SKIPPED.ordinal()) {
+                histogram.record(time);
+                classHistogram(classNameId).record(time);
+            }
+            appendRow(fileId, titleId, classNameId, testNameId, status, time, message, detailMessage, signature);
+            counts[status]++;
+            return true;
+        }
+
+        /**
+         * Appends the row without adding it to the counts or histograms.
+         */
+        private void appendRow(final int fileId, final int titleId, final int classNameId, final int testNameId, final int status,
+                               final long time, final String message, final DetailMessage detailMessage,
+                               final FailureSignature signature) {
+            ensureCapacity(size + 1);
+            final int row = size++;
+            fileIds[row] = fileId;
+            titleIds[row] = titleId;
+            classNameIds[row] = classNameId;
+            testNameIds[row] = testNameId;
+            statuses[row] = (byte) status;
+            times[row] = time;
+            if (message != null && !message.isEmpty()) {
+                if (messages == null) {
+                    messages = new String[fileIds.length];
+                }
+                messages[row] = message;
+            }
+            if (detailMessage != null && !detailMessage.isEmpty()) {
+                if (detailMessages == null) {
+                    detailMessages = new DetailMessage[fileIds.length];
+                }
+                detailMessages[row] = detailMessage;
+            }
+            if (signature != null) {
+                if (signatures == null) {
+                    signatures = new FailureSignature[fileIds.length];
+                }
+                signatures[row] = signature;
+            }
+            insert(row);
+        }
+
+        private DurationHistogram classHistogram(final int classNameId) {
+            if (classNameId >= classHistograms.length) {
+                classHistograms = Arrays.copyOf(classHistograms, Math.max(classNameId + 1, classHistograms.length * 2));
+            }
+            if (classHistograms[classNameId] == null) {
+                classHistograms[classNameId] = new DurationHistogram();
+            }
+            return classHistograms[classNameId];
+        }
+
+        private int findRow(final int classNameId, final int testNameId, final int status) {
+            final int mask = table.length - 1;
+            int slot = hash(classNameId, testNameId, status) & mask;
+            int entry;
+            while ((entry = table[slot]) != 0) {
+                final int row = entry - 1;
+                if (classNameIds[row] == classNameId && testNameIds[row] == testNameId && statuses[row] == status) {
+                    return row;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void insert(final int row) {
+            if (size * 2 > table.length) {
+                table = new int[table.length * 2];
+                for (int r = 0; r < size; r++) {
+                    insertRow(r);
+                }
+            } else {
+                insertRow(row);
+            }
+        }
+
+        private void insertRow(final int row) {
+            final int mask = table.length - 1;
+            int slot = hash(classNameIds[row], testNameIds[row], statuses[row]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = row + 1;
+        }
+
+        private void ensureCapacity(final int capacity) {
+            if (capacity > fileIds.length) {
+                final int newCapacity = Math.max(capacity, fileIds.length + (fileIds.length >> 1));
+                fileIds = Arrays.copyOf(fileIds, newCapacity);
+                titleIds = Arrays.copyOf(titleIds, newCapacity);
+                classNameIds = Arrays.copyOf(classNameIds, newCapacity);
+                testNameIds = Arrays.copyOf(testNameIds, newCapacity);
+                statuses = Arrays.copyOf(statuses, newCapacity);
+                times = Arrays.copyOf(times, newCapacity);
+                if (messages != null) {
+                    messages = Arrays.copyOf(messages, newCapacity);
+                }
+                if (detailMessages != null) {
+                    detailMessages = Arrays.copyOf(detailMessages, newCapacity);
+                }
+                if (signatures != null) {
+                    signatures = Arrays.copyOf(signatures, newCapacity);
+                }
+            }
+        }
+
+        private static int hash(final int classNameId, final int testNameId, final int status) {
+            // The ids are sequential, so they are mixed to avoid long runs of occupied slots when probing
+            final int h = ((classNameId * 31 + testNameId) * 31 + status) * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        private static void sort(final int[] rows, final int[] tmp, final int from, final int to, final IntBinaryOperator comparator) {
+            if (to - from < 2) {
+                return;
+            }
+            final int mid = (from + to) >>> 1;
+            sort(rows, tmp, from, mid, comparator);
+            sort(rows, tmp, mid, to, comparator);
+            if (comparator.applyAsInt(rows[mid - 1], rows[mid]) <= 0) {
+                return;
+            }
+            System.arraycopy(rows, from, tmp, from, to - from);
+            int left = from;
+            int right = mid;
+            for (int i = from; i < to; i++) {
+                if (right >= to || (left < mid && comparator.applyAsInt(tmp[left], tmp[right]) <= 0)) {
+                    rows[i] = tmp[left++];
+                } else {
+                    rows[i] = tmp[right++];
+                }
+            }
+        }
+    }
+
+    /**
+     * Interns values assigning each unique value an id.
+     *
+     * @param <T> the type of the values
+     */
+    private static class Interner<T> {
+        private final Map<T, Integer> ids = new HashMap<>();
+        private final List<T> values = new ArrayList<>();
+
+        int intern(final T value) {
+            final Integer id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            final int newId = values.size();
+            values.add(value);
+            ids.put(value, newId);
+            return newId;
+        }
+
+        /**
+         * Interns all the values from the other dictionary.
+         *
+         * @param other the dictionary to intern the values from
+         *
+         * @return an array indexed by the id in the other dictionary containing the id in this dictionary
+         */
+        int[] internAll(final Interner<T> other) {
+            final int[] mapped = new int[other.values.size()];
+            for (int i = 0; i < mapped.length; i++) {
+                mapped[i] = intern(other.values.get(i));
+            }
+            return mapped;
+        }
+
+        int find(final T value) {
+            final Integer id = ids.get(value);
+            return id == null ? -1 : id;
+        }
+
+        T get(final int id) {
+            return values.get(id);
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        void clear() {
+            ids.clear();
+            values.clear();
+        }
+
+        /**
+         * Returns the rank of each id where the rank is the position of the value when sorted.
+         *
+         * @param comparator the comparator used to sort the values
+         *
+         * @return an array indexed by the id containing the rank
+         */
+        int[] rank(final Comparator<? super T> comparator) {
+            final Integer[] sorted = new Integer[values.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = i;
+            }
+            Arrays.sort(sorted, (a, b) -> comparator.compare(values.get(a), values.get(b)));
+            final int[] rank = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                rank[sorted[i]] = i;
+            }
+            return rank;
+        }
+    }
+
+    /**
+     * A log-linear histogram of durations in microseconds in the style of an HDR histogram. Each power of two range
+     * is split into linear sub-buckets, so a recorded value is within about 3% of the bucket's upper bound while the
+     * memory is constant with respect to the number of values. Durations below {@link #SUB_BUCKETS} microseconds are
+     * exact.
+     */
+    private static class DurationHistogram {
+        private static final int SUB_BUCKET_BITS = 6;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int HALF_SUB_BUCKETS = SUB_BUCKETS >>> 1;
+
+        // Grown on demand to the bucket of the largest value recorded
+        private long[] counts = new long[SUB_BUCKETS];
+        private long count;
+        private long total;
+        private long min = Long.MAX_VALUE;
+        private long max;
+
+        void record(final long micros) {
+            final long value = Math.max(0L, micros);
+            final int index = index(value);
+            if (index >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length + HALF_SUB_BUCKETS * 4));
+            }
+            counts[index]++;
+            count++;
+            total += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        /**
+         * Returns the value at the percentile. The value is the upper bound of the bucket, limited to the maximum
+         * value recorded.
+         *
+         * @param percentile the percentile, between 0 and 100
+         *
+         * @return the value in microseconds
+         */
+        long percentile(final double percentile) {
+            if (count == 0) {
+                return 0L;
+            }
+            final long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.max(min, Math.min(max, upperBound(i)));
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Adds the values recorded in the other histogram. The buckets are the same for every histogram so the result
+         * is the same as if the values had been recorded in this histogram.
+         *
+         * @param other the histogram to add
+         */
+        void add(final DurationHistogram other) {
+            if (other.counts.length > counts.length) {
+                counts = Arrays.copyOf(counts, other.counts.length);
+            }
+            for (int i = 0; i < other.counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            total += other.total;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+
+        void write(final DataOutputStream out) throws IOException {
+            out.writeLong(count);
+            out.writeLong(total);
+            out.writeLong(min);
+            out.writeLong(max);
+            int buckets = 0;
+            for (long value : counts) {
+                if (value != 0) {
+                    buckets++;
+                }
+            }
+            // Only the buckets with values are written
+            out.writeInt(buckets);
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    out.writeInt(i);
+                    out.writeLong(counts[i]);
+                }
+            }
+        }
+
+        static DurationHistogram read(final DataInputStream in) throws IOException {
+            final DurationHistogram histogram = new DurationHistogram();
+            histogram.count = in.readLong();
+            histogram.total = in.readLong();
+            histogram.min = in.readLong();
+            histogram.max = in.readLong();
+            final int buckets = in.readInt();
+            for (int i = 0; i < buckets; i++) {
+                final int index = in.readInt();
+                if (index >= histogram.counts.length) {
+                    histogram.counts = Arrays.copyOf(histogram.counts, Math.max(index + 1, histogram.counts.length * 2));
+                }
+                histogram.counts[index] = in.readLong();
+            }
+            return histogram;
+        }
+
+        long count() {
+            return count;
+        }
+
+        long total() {
+            return total;
+        }
+
+        long min() {
+            return count == 0 ? 0L : min;
+        }
+
+        long max() {
+            return max;
+        }
+
+        private static int index(final long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            // Shift the value so the highest bit is the top bit of the sub-bucket
+            final int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+            return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) ((value >>> shift) - HALF_SUB_BUCKETS);
+        }
+
+        private static long upperBound(final int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            final int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+            final long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+            return ((subBucket + 1) << shift) - 1;
+        }
+    }
+
+    /**
+     * Keeps the first {@code N} ids offered in the order of the comparator. The heap is ordered so the last of the
+     * kept ids is the root, an id which orders before it replaces the root in {@code O(log N)}.
+     */
+    private static class BoundedHeap {
+        private final int[] heap;
+        private final IntBinaryOperator order;
+        private int size;
+
+        private BoundedHeap(final int capacity, final IntBinaryOperator order) {
+            this.heap = new int[capacity];
+            this.order = order;
+        }
+
+        void offer(final int id) {
+            if (size < heap.length) {
+                heap[size] = id;
+                siftUp(size++);
+            } else if (size > 0 && order.applyAsInt(id, heap[0]) < 0) {
+                heap[0] = id;
+                siftDown(0, size);
+            }
+        }
+
+        /**
+         * Returns the kept ids in the order of the comparator. The heap is emptied.
+         *
+         * @return the kept ids
+         */
+        int[] toSortedArray() {
+            final int len = size;
+            // Repeatedly move the root, the last in order, to the end
+            for (int end = len - 1; end > 0; end--) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+            size = 0;
+            return Arrays.copyOf(heap, len);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
+                if (order.applyAsInt(heap[parent], heap[i]) >= 0) {
+                    return;
+                }
+                swap(parent, i);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i, final int len) {
+            while (true) {
+                final int left = (i << 1) + 1;
+                if (left >= len) {
+                    return;
+                }
+                final int right = left + 1;
+                final int last = right < len && order.applyAsInt(heap[right], heap[left]) > 0 ? right : left;
+                if (order.applyAsInt(heap[i], heap[last]) >= 0) {
+                    return;
+                }
+                swap(i, last);
+                i = last;
+            }
+        }
+
+        private void swap(final int a, final int b) {
+            final int tmp = heap[a];
+            heap[a] = heap[b];
+            heap[b] = tmp;
+        }
+    }
+
+    /**
+     * The total time of the tests in a test class.
+     */
+    private static class ClassTime {
+        private final String className;
+        private final int tests;
+        // The time in microseconds
+        private final long time;
+
+        private ClassTime(final String className, final int tests, final long time) {
+            this.className = className;
+            this.tests = tests;
+            this.time = time;
+        }
+    }
+
+    /**
+     * The signature of a failure or error. The signature is a hash of the exception type and the top frames of the
+     * stack trace with the parts which change between runs removed, for example line numbers, lambda and proxy class
+     * numbers and identity hash codes. Only the first lines of the stack trace are kept as a sample for printing.
+     */
+    private static class FailureSignature {
+        private static final int TOP_FRAMES = 5;
+        private static final Pattern LINE_NUMBER = Pattern.compile(":\\d+\\)");
+        private static final Pattern LAMBDA = Pattern.compile("(\\$\\$Lambda)[$/\\w]*|(lambda\\$[\\w$]*?)\\$\\d+");
+        private static final Pattern GENERATED = Pattern.compile("(\\$Proxy|GeneratedMethodAccessor|GeneratedConstructorAccessor)\\d+");
+        private static final Pattern HASH = Pattern.compile("0x\\p{XDigit}+|@\\p{XDigit}{4,}");
+        private static final Pattern DIGITS = Pattern.compile("\\d+");
+        private static final Pattern EXCEPTION_TYPE = Pattern.compile("[\\w$]+(\\.[\\w$]+)+");
+
+        private final long hash;
+        private final String trace;
+
+        private FailureSignature(final long hash, final String trace) {
+            this.hash = hash;
+            this.trace = trace;
+        }
+
+        /**
+         * Creates the signature for a failure.
+         *
+         * @param message the message attribute of the failure, used when the failure does not have a stack trace
+         * @param text    the text of the failure, may be {@code null}
+         *
+         * @return the signature
+         */
+        static FailureSignature of(final String message, final String text) {
+            final String[] lines = text == null ? new String[0] : text.strip().split("\\R");
+            final StringBuilder key = new StringBuilder();
+            final StringBuilder trace = new StringBuilder();
+            int frames = 0;
+            for (String line : lines) {
+                final String value = line.strip();
+                if (value.startsWith("at ")) {
+                    if (frames++ == TOP_FRAMES) {
+                        break;
+                    }
+                    key.append('\n').append(normalize(value));
+                    trace.append('\n').append(value);
+                }
+            }
+            final String header = lines.length == 0 ? "" : lines[0].strip();
+            if (frames == 0) {
+                // Without a stack trace the message is the only information, ignore any numbers in it
+                final String value = message == null || message.isBlank() ? header : message.strip();
+                key.append(DIGITS.matcher(HASH.matcher(value).replaceAll("")).replaceAll("#"));
+            } else {
+                // The message usually contains values from the test, only the type of the exception is used
+                final int end = header.indexOf(':');
+                final String type = end < 0 ? header : header.substring(0, end);
+                key.insert(0, EXCEPTION_TYPE.matcher(type).matches() ? type : "");
+            }
+            trace.insert(0, header.isEmpty() && message != null ? message.strip() : header);
+            return new FailureSignature(hash(key), trace.toString());
+        }
+
+        private static String normalize(final String frame) {
+            String result = LINE_NUMBER.matcher(frame).replaceAll(")");
+            result = LAMBDA.matcher(result).replaceAll("$1$2");
+            result = GENERATED.matcher(result).replaceAll("$1");
+            return HASH.matcher(result).replaceAll("");
+        }
+
+        private static long hash(final CharSequence value) {
+            // FNV-1a
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * The tests with the same failure signature.
+     */
+    private static class FailureCluster {
+        private final FailureSignature signature;
+        private final String className;
+        private final String testName;
+        // The number of tests indexed by the status ordinal
+        private final int[] counts;
+
+        private FailureCluster(final FailureSignature signature, final String className, final String testName, final int[] counts) {
+            this.signature = signature;
+            this.className = className;
+            this.testName = testName;
+            this.counts = counts;
+        }
+
+        int total() {
+            return Arrays.stream(counts).sum();
+        }
+    }
+
+    /**
+     * The totals for each status. The totals are not thread-safe, each worker accumulates into its own totals.
+     */
+    private class TestTotals {
+        private int passed;
+        private int failed;
+        private int errors;
+        private int skipped;
+
+        void increment(final Status status) {
+            switch (status) {
+                case PASSED:
+                    passed++;
+                    break;
+                case FAILED:
+                    failed++;
+                    break;
+                case ERROR:
+                    errors++;
+                    break;
+                case SKIPPED:
+                    skipped++;
+                    break;
+            }
+        }
+
+        void add(final int passed, final int failed, final int errors, final int skipped) {
+            this.passed += passed;
+            this.failed += failed;
+            this.errors += errors;
+            this.skipped += skipped;
+        }
+
+        void add(final TestTotals other) {
+            add(other.passed, other.failed, other.errors, other.skipped);
+        }
+
+        String format() {
+            return formatTotal((passed + failed + errors + skipped), passed, failed, errors, skipped);
+        }
+    }
+
+    /**
+     * The attributes of the {@code testsuite} start tag read from the leading bytes of a report.
+     */
+    private static class SuiteHeader {
+        static final SuiteHeader INCOMPLETE = new SuiteHeader(null);
+        static final SuiteHeader NOT_FOUND = new SuiteHeader(null);
+
+        private final Map<String, String> attributes;
+
+        private SuiteHeader(final Map<String, String> attributes) {
+            this.attributes = attributes;
+        }
+
+        /**
+         * Scans the bytes for the first element start tag. Only ASCII compatible encodings are supported, any other
+         * encoding will result in the element not being found.
+         *
+         * @param buffer the bytes read
+         * @param len    the number of bytes read
+         *
+         * @return the header, {@link #INCOMPLETE} if more bytes are required or {@link #NOT_FOUND} if the first element
+         * is not a {@code testsuite}
+         */
+        static SuiteHeader parse(final byte[] buffer, final int len) {
+            int pos = 0;
+            while (true) {
+                pos = indexOf(buffer, len, pos, "<");
+                if (pos < 0) {
+                    return INCOMPLETE;
+                }
+                if (startsWith(buffer, len, pos, "<?")) {
+                    pos = indexOf(buffer, len, pos, "?>");
+                } else if (startsWith(buffer, len, pos, "<!--")) {
+                    pos = indexOf(buffer, len, pos, "-->");
+                } else if (startsWith(buffer, len, pos, "<!")) {
+                    pos = indexOf(buffer, len, pos, ">");
+                } else {
+                    break;
+                }
+                if (pos < 0) {
+                    return INCOMPLETE;
+                }
+            }
+            final String tag = "<testsuite";
+            if (len - pos <= tag.length()) {
+                return INCOMPLETE;
+            }
+            if (!startsWith(buffer, len, pos, tag) || !isTagEnd(buffer[pos + tag.length()])) {
+                return NOT_FOUND;
+            }
+            pos += tag.length();
+            final Map<String, String> attributes = new HashMap<>();
+            while (pos < len) {
+                final byte b = buffer[pos];
+                if (b == '>' || b == '/') {
+                    return new SuiteHeader(attributes);
+                }
+                if (Character.isWhitespace(b)) {
+                    pos++;
+                    continue;
+                }
+                final int nameStart = pos;
+                while (pos < len && buffer[pos] != '=' && !Character.isWhitespace(buffer[pos])) {
+                    pos++;
+                }
+                final int nameEnd = pos;
+                while (pos < len && (buffer[pos] == '=' || Character.isWhitespace(buffer[pos]))) {
+                    pos++;
+                }
+                if (pos >= len) {
+                    return INCOMPLETE;
+                }
+                final byte quote = buffer[pos];
+                if (quote != '"' && quote != '\'') {
+                    return NOT_FOUND;
+                }
+                final int valueStart = ++pos;
+                while (pos < len && buffer[pos] != quote) {
+                    pos++;
+                }
+                if (pos >= len) {
+                    return INCOMPLETE;
+                }
+                attributes.put(new String(buffer, nameStart, nameEnd - nameStart, StandardCharsets.ISO_8859_1),
+                        new String(buffer, valueStart, pos - valueStart, StandardCharsets.ISO_8859_1));
+                pos++;
+            }
+            return INCOMPLETE;
+        }
+
+        private static boolean isTagEnd(final byte b) {
+            return b == '>' || b == '/' || Character.isWhitespace(b);
+        }
+
+        private static boolean startsWith(final byte[] buffer, final int len, final int pos, final String value) {
+            if (len - pos < value.length()) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                if (buffer[pos + i] != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int indexOf(final byte[] buffer, final int len, final int from, final String value) {
+            for (int i = from; i <= len - value.length(); i++) {
+                if (startsWith(buffer, len, i, value)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * An on-disk cache of the results parsed from each report. Each report is stored in its own file keyed by the
+     * {@linkplain ReportSource#key() reports key} and the parser engine, as the engines do not produce identical
+     * detail messages, and validated against the size and {@linkplain ReportSource#stamp() stamp} of the report.
+     */
+    private static class ParseCache {
+        private static final int MAGIC = 0x53465043;
+        private static final int VERSION = 5;
+        private static final byte DETAIL_EMPTY = 0;
+        private static final byte DETAIL_VALUE = 1;
+        private static final byte DETAIL_REFERENCE = 2;
+        private static final byte DETAIL_RANGE = 3;
+        private static final Status[] STATUSES = Status.values();
+
+        private final Path dir;
+        private final DetailResolver detailResolver;
+        private final ParserEngine engine;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        private ParseCache(final Path dir, final DetailResolver detailResolver, final ParserEngine engine) {
+            this.dir = dir;
+            this.detailResolver = detailResolver;
+            this.engine = engine;
+        }
+
+        /**
+         * Reads the results from the cache if the report has not changed, otherwise the report is parsed and the
+         * results are stored in the cache.
+         *
+         * @param source   the report
+         * @param parser   the parser used if the report is not cached
+         * @param consumer the consumer invoked for each test result
+         *
+         * @return {@code true} if a {@code testsuite} element was found, otherwise {@code false}
+         *
+         * @throws IOException if an error occurs reading the report or the cache
+         */
+        boolean parse(final ReportSource source, final ReportParser parser, final Consumer<TestResult> consumer) throws IOException {
+            final String key = engine + ":" + source.key();
+            final long size = source.size();
+            final long stamp = source.stamp();
+            final Path cacheFile = resolve(key);
+            if (Files.exists(cacheFile) && read(cacheFile, key, size, stamp, source, consumer)) {
+                hits.increment();
+                return true;
+            }
+            misses.increment();
+            final List<TestResult> results = new ArrayList<>();
+            final boolean found = parser.parse(source, result -> {
+                results.add(result);
+                consumer.accept(result);
+            });
+            if (found) {
+                write(cacheFile, key, size, stamp, results);
+            }
+            return found;
+        }
+
+        private boolean read(final Path cacheFile, final String key, final long size, final long stamp, final ReportSource source,
+                             final Consumer<TestResult> consumer) throws IOException {
+            final Path file = source.path();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(readString(in))
+                        || in.readLong() != size || in.readLong() != stamp) {
+                    return false;
+                }
+                // Read all the results before any are consumed in case the cache file is truncated
+                final int count = in.readInt();
+                if (count < 0) {
+                    return false;
+                }
+                final List<TestResult> results = new ArrayList<>(Math.min(count, 1024));
+                for (int i = 0; i < count; i++) {
+                    final int ordinal = in.readByte();
+                    if (ordinal < 0 || ordinal >= STATUSES.length) {
+                        return false;
+                    }
+                    final Status status = STATUSES[ordinal];
+                    final String className = readString(in);
+                    final String testName = readString(in);
+                    final long time = in.readLong();
+                    final String message = readString(in);
+                    final DetailMessage detailMessage;
+                    final byte detailType = in.readByte();
+                    if (detailType == DETAIL_REFERENCE) {
+                        final int index = in.readInt();
+                        if (index < 0) {
+                            return false;
+                        }
+                        detailMessage = detailResolver.reference(source, index);
+                    } else if (detailType == DETAIL_RANGE) {
+                        final int start = in.readInt();
+                        final int end = in.readInt();
+                        if (start < 0 || end < start) {
+                            return false;
+                        }
+                        detailMessage = detailResolver.reference(source, start, end);
+                    } else if (detailType == DETAIL_VALUE) {
+                        detailMessage = DetailMessage.of(readString(in));
+                    } else {
+                        detailMessage = DetailMessage.EMPTY;
+                    }
+                    final FailureSignature signature = in.readBoolean() ? new FailureSignature(in.readLong(), readString(in)) : null;
+                    results.add(new TestResult(file, status, className, testName, time, message, detailMessage, signature));
+                }
+                results.forEach(consumer);
+                return true;
+            } catch (EOFException | StreamCorruptedException e) {
+                // A truncated or corrupt cache file is treated as a miss and rewritten
+                return false;
+            }
+        }
+
+        private void write(final Path cacheFile, final String key, final long size, final long stamp,
+                           final List<TestResult> results) throws IOException {
+            Files.createDirectories(cacheFile.getParent());
+            // Write to a temporary file first so concurrent runs never see a partially written file
+            final Path tmp = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    writeString(out, key);
+                    out.writeLong(size);
+                    out.writeLong(stamp);
+                    out.writeInt(results.size());
+                    for (TestResult result : results) {
+                        out.writeByte(result.status.ordinal());
+                        writeString(out, result.title);
+                        writeString(out, result.testName);
+                        out.writeLong(result.time);
+                        writeString(out, result.message);
+                        if (result.detailMessage instanceof ReportDetailMessage) {
+                            out.writeByte(DETAIL_REFERENCE);
+                            out.writeInt(((ReportDetailMessage) result.detailMessage).index);
+                        } else if (result.detailMessage instanceof RangeDetailMessage) {
+                            final RangeDetailMessage range = (RangeDetailMessage) result.detailMessage;
+                            out.writeByte(DETAIL_RANGE);
+                            out.writeInt(range.start);
+                            out.writeInt(range.end);
+                        } else if (result.detailMessage.isEmpty()) {
+                            out.writeByte(DETAIL_EMPTY);
+                        } else {
+                            out.writeByte(DETAIL_VALUE);
+                            writeString(out, result.detailMessage.read());
+                        }
+                        out.writeBoolean(result.signature != null);
+                        if (result.signature != null) {
+                            out.writeLong(result.signature.hash);
+                            writeString(out, result.signature.trace);
+                        }
+                    }
+                }
+                Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        private Path resolve(final String key) {
+            final MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            final byte[] hash = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder name = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            // Split the files into sub-directories to avoid a single directory with thousands of files
+            return dir.resolve(name.substring(0, 2)).resolve(name.substring(2));
+        }
+
+        private static String readString(final DataInputStream in) throws IOException {
+            final int length = in.readInt();
+            if (length < 0) {
+                throw new StreamCorruptedException("Invalid string length " + length);
+            }
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static void writeString(final DataOutputStream out, final String value) throws IOException {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * The detail message, generally the stack trace, of a failure or an error.
+     */
+    private abstract static class DetailMessage {
+        static final DetailMessage EMPTY = of("");
+
+        /**
+         * Creates a detail message for the value.
+         *
+         * @param value the value
+         *
+         * @return the detail message
+         */
+        static DetailMessage of(final String value) {
+            return new ValueDetailMessage(value);
+        }
+
+        /**
+         * Reads the detail message.
+         *
+         * @return the detail message
+         *
+         * @throws IOException if the message needs to be read from the report and reading failed
+         */
+        abstract String read() throws IOException;
+
+        /**
+         * Indicates whether the message is known to be empty without reading it.
+         *
+         * @return {@code true} if the message is empty
+         */
+        abstract boolean isEmpty();
+    }
+
+    private static class ValueDetailMessage extends DetailMessage {
+        private final String value;
+
+        private ValueDetailMessage(final String value) {
+            this.value = value == null ? "" : value;
+        }
+
+        @Override
+        String read() {
+            return value;
+        }
+
+        @Override
+        boolean isEmpty() {
+            return value.isBlank();
+        }
+    }
+
+    /**
+     * A reference to the body of the failure or error element in a report. The body is only read when required.
+     */
+    private static class ReportDetailMessage extends DetailMessage {
+        private final DetailResolver resolver;
+        private final ReportSource source;
+        private final int index;
+
+        private ReportDetailMessage(final DetailResolver resolver, final ReportSource source, final int index) {
+            this.resolver = resolver;
+            this.source = source;
+            this.index = index;
+        }
+
+        @Override
+        String read() throws IOException {
+            return resolver.read(source, index);
+        }
+
+        @Override
+        boolean isEmpty() {
+            return false;
+        }
+    }
+
+    /**
+     * A reference to the byte range of the body of the failure or error element in a report. The body is only read
+     * and decoded when required.
+     */
+    private static class RangeDetailMessage extends DetailMessage {
+        private final DetailResolver resolver;
+        private final ReportSource source;
+        private final int start;
+        private final int end;
+
+        private RangeDetailMessage(final DetailResolver resolver, final ReportSource source, final int start, final int end) {
+            this.resolver = resolver;
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        String read() throws IOException {
+            return resolver.read(source, start, end);
+        }
+
+        @Override
+        boolean isEmpty() {
+            return start >= end;
+        }
+    }
+
+    /**
+     * Reads the detail messages referenced by a {@link ReportDetailMessage} or a {@link RangeDetailMessage}. For an
+     * indexed reference the body of each {@code failure} and {@code error} element inside a {@code testcase} is
+     * indexed in document order. All the bodies, or the mapped bytes, of the most recently read report are retained
+     * as the results for a report are generally printed together.
+     */
+    private static class DetailResolver {
+        private final XMLInputFactory factory;
+        private String currentKey;
+        private List<String> current = List.of();
+        private String mappedKey;
+        private ByteBuffer mapped;
+
+        private DetailResolver() {
+            factory = XMLInputFactory.newFactory();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        }
+
+        /**
+         * Creates a reference to a detail message.
+         *
+         * @param source the report
+         * @param index  the index of the {@code failure} or {@code error} element in the report
+         *
+         * @return the reference
+         */
+        DetailMessage reference(final ReportSource source, final int index) {
+            return new ReportDetailMessage(this, source, index);
+        }
+
+        /**
+         * Creates a reference to a detail message.
+         *
+         * @param source the report
+         * @param start  the offset of the first byte of the element body
+         * @param end    the offset of the byte after the element body
+         *
+         * @return the reference
+         */
+        DetailMessage reference(final ReportSource source, final int start, final int end) {
+            return new RangeDetailMessage(this, source, start, end);
+        }
+
+        synchronized String read(final ReportSource source, final int start, final int end) throws IOException {
+            final String key = source.key();
+            if (!key.equals(mappedKey)) {
+                mapped = source.bytes();
+                mappedKey = key;
+            }
+            if (end > mapped.limit()) {
+                throw new IOException("The report has changed since it was parsed.");
+            }
+            return XmlBytes.decodeText(mapped, start, end).strip();
+        }
+
+        synchronized String read(final ReportSource source, final int index) throws IOException {
+            final String key = source.key();
+            if (!key.equals(currentKey)) {
+                current = readAll(source);
+                currentKey = key;
+            }
+            if (index >= current.size()) {
+                throw new IOException("The report has changed since it was parsed.");
+            }
+            return current.get(index);
+        }
+
+        private List<String> readAll(final ReportSource source) throws IOException {
+            final List<String> details = new ArrayList<>();
+            try (InputStream in = source.open()) {
+                final XMLStreamReader reader = factory.createXMLStreamReader(in);
+                try {
+                    int depth = 0;
+                    int testCaseDepth = -1;
+                    StringBuilder text = null;
+                    while (reader.hasNext()) {
+                        final int event = reader.next();
+                        if (event == XMLStreamConstants.START_ELEMENT) {
+                            depth++;
+                            final String name = reader.getLocalName();
+                            if ("testcase".equals(name)) {
+                                testCaseDepth = depth;
+                            } else if ("system-out".equals(name) || "system-err".equals(name)) {
+                                skipElement(reader);
+                                depth--;
+                            } else if (testCaseDepth > 0 && ("failure".equals(name) || "error".equals(name))) {
+                                text = new StringBuilder();
+                            }
+                        } else if (text != null && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+                            text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        } else if (event == XMLStreamConstants.END_ELEMENT) {
+                            final String name = reader.getLocalName();
+                            if (text != null && ("failure".equals(name) || "error".equals(name))) {
+                                details.add(text.toString().strip());
+                                text = null;
+                            } else if (depth == testCaseDepth) {
+                                testCaseDepth = -1;
+                            }
+                            depth--;
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            return details;
+        }
+    }
+
+    /**
+     * A compiled filter expression for the tests. An expression is made of comparisons joined with {@code and},
+     * {@code or}, {@code not} and parentheses, for example
+     * {@code status in (FAILED,ERROR) and time > 5s and class ~ 'org.acme.*IT'}.
+     * <ul>
+     *     <li>{@code status} supports {@code =}, {@code !=} and {@code in}</li>
+     *     <li>{@code class} and {@code test} support {@code =}, {@code !=}, {@code in} and the glob matches {@code ~}
+     *     and {@code !~} where {@code *} matches any characters and {@code ?} a single character</li>
+     *     <li>{@code time} supports {@code =}, {@code !=}, {@code <}, {@code <=}, {@code >} and {@code >=} with a
+     *     {@code us}, {@code ms}, {@code s}, {@code m} or {@code h} unit, seconds if no unit is defined</li>
+     * </ul>
+     * <p>
+     * The expression is evaluated with three-valued logic so it can be checked before all the attributes of a test
+     * are known. A report can be skipped based on its {@code TEST-<class>.xml} name before it is opened if no class the
+     * name could give its tests can match, and a test case can be skipped based on its class, name and time before its
+     * content is read.
+     * </p>
+     */
+    private static class TestFilter {
+        static final TestFilter ALL = new TestFilter(null, false);
+
+        private static final int FALSE = 0;
+        private static final int TRUE = 1;
+        private static final int UNKNOWN = 2;
+
+        private final Node root;
+        private final boolean classes;
+
+        private TestFilter(final Node root, final boolean classes) {
+            this.root = root;
+            this.classes = classes;
+        }
+
+        /**
+         * Compiles the filter expression.
+         *
+         * @param expression the expression
+         *
+         * @return the filter
+         *
+         * @throws IllegalArgumentException if the expression is invalid
+         */
+        static TestFilter compile(final String expression) {
+            final FilterParser parser = new FilterParser(expression);
+            final Node root = parser.parse();
+            return new TestFilter(root, parser.classes);
+        }
+
+        /**
+         * Checks whether the report could contain a matching test based on the report name. The class of each test in
+         * a {@code TEST-<class>.xml} report is either the class in the name or a {@code classname} contained in the
+         * name, see {@link TestResult#parseTestClassName(Path, String)}. An aggregate report, such as
+         * {@code TEST-TestSuite.xml}, keeps the {@code classname} of each test and is always accepted.
+         *
+         * @param file the report
+         *
+         * @return {@code false} if no test in the report can match
+         */
+        boolean acceptsReport(final Path file) {
+            if (!classes || file.getFileName() == null) {
+                return true;
+            }
+            final String name = file.getFileName().toString();
+            if (!name.startsWith("TEST-") || !name.endsWith(".xml") || name.equalsIgnoreCase("TEST-TestSuite.xml")) {
+                return true;
+            }
+            return root.evalReport(name) != FALSE;
+        }
+
+        /**
+         * Checks whether the test case could match before its status is known.
+         *
+         * @param file      the report
+         * @param className the {@code classname} attribute of the test case
+         * @param testName  the test name
+         * @param time      the time in microseconds
+         *
+         * @return {@code false} if the test case cannot match
+         */
+        boolean acceptsTestCase(final Path file, final String className, final String testName, final long time) {
+            return root == null || root.eval(testClassName(file, className), testName, time, null) != FALSE;
+        }
+
+        /**
+         * Checks whether the test matches.
+         *
+         * @param file      the report
+         * @param className the {@code classname} attribute of the test case
+         * @param testName  the test name
+         * @param time      the time in microseconds
+         * @param status    the status
+         *
+         * @return {@code true} if the test matches
+         */
+        boolean accepts(final Path file, final String className, final String testName, final long time, final Status status) {
+            return root == null || root.eval(testClassName(file, className), testName, time, status) == TRUE;
+        }
+
+        boolean test(final TestResult result) {
+            return root == null || root.eval(result.className, result.testName, result.time, result.status) == TRUE;
+        }
+
+        // The class is matched against the class name of the result, which may be derived from the report name
+        private String testClassName(final Path file, final String className) {
+            return classes ? TestResult.parseTestClassName(file, className) : className;
+        }
+
+        private interface Node {
+            /**
+             * Evaluates the node, a {@code null} or negative value is unknown.
+             *
+             * @return {@code TRUE}, {@code FALSE} or {@code UNKNOWN}
+             */
+            int eval(String className, String testName, long time, Status status);
+
+            /**
+             * Evaluates the node for any test in the report before it is opened.
+             *
+             * @param reportName the file name of the report, which contains the class of each test
+             *
+             * @return {@code FALSE} if no test in the report can match, otherwise {@code TRUE} or {@code UNKNOWN}
+             */
+            default int evalReport(String reportName) {
+                return UNKNOWN;
+            }
+        }
+
+        private static class And implements Node {
+            private final Node left;
+            private final Node right;
+
+            private And(final Node left, final Node right) {
+                this.left = left;
+                this.right = right;
+            }
+
+            @Override
+            public int eval(final String className, final String testName, final long time, final Status status) {
+                final int l = left.eval(className, testName, time, status);
+                if (l == FALSE) {
+                    return FALSE;
+                }
+                final int r = right.eval(className, testName, time, status);
+                if (r == FALSE) {
+                    return FALSE;
+                }
+                return l == TRUE && r == TRUE ? TRUE : UNKNOWN;
+            }
+
+            @Override
+            public int evalReport(final String reportName) {
+                final int l = left.evalReport(reportName);
+                if (l == FALSE) {
+                    return FALSE;
+                }
+                final int r = right.evalReport(reportName);
+                if (r == FALSE) {
+                    return FALSE;
+                }
+                return l == TRUE && r == TRUE ? TRUE : UNKNOWN;
+            }
+        }
+
+        private static class Or implements Node {
+            private final Node left;
+            private final Node right;
+
+            private Or(final Node left, final Node right) {
+                this.left = left;
+                this.right = right;
+            }
+
+            @Override
+            public int eval(final String className, final String testName, final long time, final Status status) {
+                final int l = left.eval(className, testName, time, status);
+                if (l == TRUE) {
+                    return TRUE;
+                }
+                final int r = right.eval(className, testName, time, status);
+                if (r == TRUE) {
+                    return TRUE;
+                }
+                return l == FALSE && r == FALSE ? FALSE : UNKNOWN;
+            }
+
+            @Override
+            public int evalReport(final String reportName) {
+                final int l = left.evalReport(reportName);
+                if (l == TRUE) {
+                    return TRUE;
+                }
+                final int r = right.evalReport(reportName);
+                if (r == TRUE) {
+                    return TRUE;
+                }
+                return l == FALSE && r == FALSE ? FALSE : UNKNOWN;
+            }
+        }
+
+        private static class Not implements Node {
+            private final Node node;
+
+            private Not(final Node node) {
+                this.node = node;
+            }
+
+            @Override
+            public int eval(final String className, final String testName, final long time, final Status status) {
+                final int value = node.eval(className, testName, time, status);
+                return value == UNKNOWN ? UNKNOWN : TRUE - value;
+            }
+
+            @Override
+            public int evalReport(final String reportName) {
+                final int value = node.evalReport(reportName);
+                return value == UNKNOWN ? UNKNOWN : TRUE - value;
+            }
+        }
+
+        private static class StatusIn implements Node {
+            private final Set<Status> statuses;
+
+            private StatusIn(final Set<Status> statuses) {
+                this.statuses = statuses;
+            }
+
+            @Override
+            public int eval(final String className, final String testName, final long time, final Status status) {
+                if (status == null) {
+                    return UNKNOWN;
+                }
+                return statuses.contains(status) ? TRUE : FALSE;
+            }
+        }
+
+        private static class NameMatch implements Node {
+            private final boolean testName;
+            private final Set<String> values;
+            private final Pattern pattern;
+
+            private NameMatch(final boolean testName, final Set<String> values, final Pattern pattern) {
+                this.testName = testName;
+                this.values = values;
+                this.pattern = pattern;
+            }
+
+            @Override
+            public int eval(final String className, final String testName, final long time, final Status status) {
+                final String value = this.testName ? testName : className;
+                if (value == null) {
+                    return UNKNOWN;
+                }
+                final boolean matches = pattern == null ? values.contains(value) : pattern.matcher(value).matches();
+                return matches ? TRUE : FALSE;
+            }
+
+            @Override
+            public int evalReport(final String reportName) {
+                if (testName) {
+                    return UNKNOWN;
+                }
+                // The classes in the report are not known, only that each is contained in the report name
+                if (pattern == null) {
+                    for (String value : values) {
+                        if (reportName.contains(value)) {
+                            return UNKNOWN;
+                        }
+                    }
+                    return FALSE;
+                }
+                return pattern.matcher(reportName).find() ? UNKNOWN : FALSE;
+            }
+        }
+
+        private static class TimeCompare implements Node {
+            private final String operator;
+            private final long micros;
+
+            private TimeCompare(final String operator, final long micros) {
+                this.operator = operator;
+                this.micros = micros;
+            }
+
+            @Override
+            public int eval(final String className, final String testName, final long time, final Status status) {
+                if (time < 0L) {
+                    return UNKNOWN;
+                }
+                final boolean result;
+                switch (operator) {
+                    case "=":
+                        result = time == micros;
+                        break;
+                    case "<":
+                        result = time < micros;
+                        break;
+                    case "<=":
+                        result = time <= micros;
+                        break;
+                    case ">":
+                        result = time > micros;
+                        break;
+                    default:
+                        result = time >= micros;
+                        break;
+                }
+                return result ? TRUE : FALSE;
+            }
+        }
+
+        /**
+         * A recursive descent parser for the filter expression.
+         */
+        private static class FilterParser {
+            private static final Pattern DURATION = Pattern.compile("(\\d+(?:\\.\\d+)?)(us|ms|s|m|h)?");
+
+            private final String expression;
+            private final List<String> tokens = new ArrayList<>();
+            private final List<Integer> positions = new ArrayList<>();
+            private int index;
+            private boolean classes;
+
+            private FilterParser(final String expression) {
+                this.expression = expression;
+                tokenize();
+            }
+
+            Node parse() {
+                if (tokens.isEmpty()) {
+                    throw new IllegalArgumentException("The filter expression is empty.");
+                }
+                final Node node = parseOr();
+                if (index < tokens.size()) {
+                    throw error("Unexpected '" + tokens.get(index) + "'");
+                }
+                return node;
+            }
+
+            private Node parseOr() {
+                Node node = parseAnd();
+                while (keyword("or")) {
+                    node = new Or(node, parseAnd());
+                }
+                return node;
+            }
+
+            private Node parseAnd() {
+                Node node = parseNot();
+                while (keyword("and")) {
+                    node = new And(node, parseNot());
+                }
+                return node;
+            }
+
+            private Node parseNot() {
+                if (keyword("not")) {
+                    return new Not(parseNot());
+                }
+                if (symbol("(")) {
+                    final Node node = parseOr();
+                    expect(")");
+                    return node;
+                }
+                return parseComparison();
+            }
+
+            private Node parseComparison() {
+                final int start = index;
+                final String field = next("a field").toLowerCase(Locale.ROOT);
+                final boolean negate = keyword("not");
+                final String operator = negate ? "in" : next("an operator").toLowerCase(Locale.ROOT);
+                if (negate && !keyword("in")) {
+                    throw error("Expected 'in' after 'not'");
+                }
+                final Node node;
+                switch (field) {
+                    case "status":
+                        node = statusComparison(operator);
+                        break;
+                    case "class":
+                        classes = true;
+                        node = nameComparison(false, operator);
+                        break;
+                    case "test":
+                        node = nameComparison(true, operator);
+                        break;
+                    case "time":
+                        node = timeComparison(operator);
+                        break;
+                    default:
+                        index = start;
+                        throw error("Unknown field '" + field + "', the fields are status, class, test and time");
+                }
+                return negate || operator.equals("!=") || operator.equals("!~") ? new Not(node) : node;
+            }
+
+            private Node statusComparison(final String operator) {
+                final Set<Status> statuses = EnumSet.noneOf(Status.class);
+                if (operator.equals("in")) {
+                    values().forEach(value -> statuses.add(status(value)));
+                } else if (operator.equals("=") || operator.equals("!=")) {
+                    statuses.add(status(next("a status")));
+                } else {
+                    throw operatorError("status", operator);
+                }
+                return new StatusIn(statuses);
+            }
+
+            private Node nameComparison(final boolean testName, final String operator) {
+                switch (operator) {
+                    case "in":
+                        return new NameMatch(testName, new HashSet<>(values()), null);
+                    case "=":
+                    case "!=":
+                        return new NameMatch(testName, Set.of(next("a value")), null);
+                    case "~":
+                    case "!~":
+                        return new NameMatch(testName, null, glob(next("a pattern")));
+                    default:
+                        throw operatorError(testName ? "test" : "class", operator);
+                }
+            }
+
+            private Node timeComparison(final String operator) {
+                switch (operator) {
+                    case "=":
+                    case "!=":
+                    case "<":
+                    case "<=":
+                    case ">":
+                    case ">=":
+                        final String value = next("a duration");
+                        final Matcher matcher = DURATION.matcher(value.toLowerCase(Locale.ROOT));
+                        if (!matcher.matches()) {
+                            index--;
+                            throw error("Invalid duration '" + value + "'");
+                        }
+                        final String unit = matcher.group(2) == null ? "s" : matcher.group(2);
+                        final long scale;
+                        switch (unit) {
+                            case "us":
+                                scale = 1L;
+                                break;
+                            case "ms":
+                                scale = 1_000L;
+                                break;
+                            case "m":
+                                scale = 60_000_000L;
+                                break;
+                            case "h":
+                                scale = 3_600_000_000L;
+                                break;
+                            default:
+                                scale = 1_000_000L;
+                                break;
+                        }
+                        final long micros = new BigDecimal(matcher.group(1)).multiply(BigDecimal.valueOf(scale))
+                                .setScale(0, RoundingMode.HALF_UP).longValue();
+                        // Inequality is the negation of the equality
+                        return new TimeCompare(operator.equals("!=") ? "=" : operator, micros);
+                    default:
+                        throw operatorError("time", operator);
+                }
+            }
+
+            private List<String> values() {
+                expect("(");
+                final List<String> values = new ArrayList<>();
+                do {
+                    values.add(next("a value"));
+                } while (symbol(","));
+                expect(")");
+                return values;
+            }
+
+            private Status status(final String value) {
+                try {
+                    return Status.valueOf(value.toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    index--;
+                    throw error("Unknown status '" + value + "', the options are " + Arrays.toString(Status.values()));
+                }
+            }
+
+            private static Pattern glob(final String value) {
+                final StringBuilder regex = new StringBuilder();
+                int start = 0;
+                for (int i = 0; i < value.length(); i++) {
+                    final char c = value.charAt(i);
+                    if (c == '*' || c == '?') {
+                        if (i > start) {
+                            regex.append(Pattern.quote(value.substring(start, i)));
+                        }
+                        regex.append(c == '*' ? ".*" : ".");
+                        start = i + 1;
+                    }
+                }
+                if (start < value.length()) {
+                    regex.append(Pattern.quote(value.substring(start)));
+                }
+                return Pattern.compile(regex.toString(), Pattern.DOTALL);
+            }
+
+            private boolean keyword(final String keyword) {
+                if (index < tokens.size() && tokens.get(index).equalsIgnoreCase(keyword)) {
+                    index++;
+                    return true;
+                }
+                return false;
+            }
+
+            private boolean symbol(final String symbol) {
+                if (index < tokens.size() && tokens.get(index).equals(symbol)) {
+                    index++;
+                    return true;
+                }
+                return false;
+            }
+
+            private void expect(final String symbol) {
+                if (!symbol(symbol)) {
+                    throw error("Expected '" + symbol + "'");
+                }
+            }
+
+            private String next(final String expected) {
+                if (index >= tokens.size()) {
+                    throw error("Expected " + expected);
+                }
+                return tokens.get(index++);
+            }
+
+            private IllegalArgumentException operatorError(final String field, final String operator) {
+                index--;
+                return error("The operator '" + operator + "' cannot be used with " + field);
+            }
+
+            private IllegalArgumentException error(final String message) {
+                final int position = index < positions.size() ? positions.get(index) : expression.length();
+                return new IllegalArgumentException(String.format("%s at position %d of the filter: %s", message, position + 1, expression));
+            }
+
+            private void tokenize() {
+                int i = 0;
+                final int len = expression.length();
+                while (i < len) {
+                    final char c = expression.charAt(i);
+                    if (Character.isWhitespace(c)) {
+                        i++;
+                        continue;
+                    }
+                    final int start = i;
+                    if (c == '\'' || c == '"') {
+                        final int end = expression.indexOf(c, i + 1);
+                        if (end < 0) {
+                            throw new IllegalArgumentException(String.format("Unterminated string at position %d of the filter: %s", start + 1, expression));
+                        }
+                        tokens.add(expression.substring(i + 1, end));
+                        i = end + 1;
+                    } else if (c == '(' || c == ')' || c == ',' || c == '=' || c == '~') {
+                        tokens.add(String.valueOf(c));
+                        i++;
+                    } else if (c == '!' || c == '<' || c == '>') {
+                        i++;
+                        if (i < len && (expression.charAt(i) == '=' || (c == '!' && expression.charAt(i) == '~'))) {
+                            i++;
+                        }
+                        tokens.add(expression.substring(start, i));
+                    } else {
+                        while (i < len && !Character.isWhitespace(expression.charAt(i)) && "()=,~!<>'\"".indexOf(expression.charAt(i)) < 0) {
+                            i++;
+                        }
+                        tokens.add(expression.substring(start, i));
+                    }
+                    positions.add(start);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses a single report file invoking the consumer for each test case found.
+     */
+    private interface ReportParser {
+
+        /**
+         * Parses the report.
+         *
+         * @param source   the report to parse
+         * @param consumer the consumer invoked for each test result
+         *
+         * @return {@code true} if a {@code testsuite} element was found, otherwise {@code false}
+         *
+         * @throws IOException if an error occurs reading or parsing the file
+         */
+        default boolean parse(ReportSource source, Consumer<TestResult> consumer) throws IOException {
+            return parse(source, TestFilter.ALL, consumer);
+        }
+
+        /**
+         * Parses the report invoking the consumer only for the test results which match the filter. Test cases which
+         * cannot match are skipped without creating a result.
+         *
+         * @param source   the report to parse
+         * @param filter   the filter for the test results
+         * @param consumer the consumer invoked for each matching test result
+         *
+         * @return {@code true} if a {@code testsuite} element was found, otherwise {@code false}
+         *
+         * @throws IOException if an error occurs reading or parsing the file
+         */
+        boolean parse(ReportSource source, TestFilter filter, Consumer<TestResult> consumer) throws IOException;
+    }
+
+    /**
+     * A streaming parser which uses StAX to read the report. The document is never fully materialized and the
+     * {@code system-out} and {@code system-err} bodies are skipped.
+     */
+    private class StaxReportParser implements ReportParser {
+        private final ThreadLocal<XMLInputFactory> factory = ThreadLocal.withInitial(() -> {
+            final XMLInputFactory factory = XMLInputFactory.newFactory();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+            return factory;
+        });
+
+        @Override
+        public boolean parse(final ReportSource source, final TestFilter filter, final Consumer<TestResult> consumer) throws IOException {
+            final Path file = source.path();
+            try (InputStream in = source.open()) {
+                final XMLStreamReader reader = factory.get().createXMLStreamReader(in);
+                try {
+                    return parse(source, reader, filter, consumer);
+                } finally {
+                    reader.close();
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException("Failed to parse " + file, e);
+            }
+        }
+
+        private boolean parse(final ReportSource source, final XMLStreamReader reader, final TestFilter filter,
+                              final Consumer<TestResult> consumer) throws XMLStreamException {
+            final Path file = source.path();
+            // Detail messages are referenced if the report can be read again, otherwise they're read if required
+            final boolean reference = referenceDetailMessages(source);
+            final boolean read = keepDetailMessages() && !reference;
+            final boolean signatures = computeSignatures();
+            boolean found = false;
+            TestCase current = null;
+            StringBuilder text = null;
+            int detailIndex = 0;
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    final String name = reader.getLocalName();
+                    if ("testsuite".equals(name)) {
+                        found = true;
+                    } else if ("testcase".equals(name)) {
+                        final String className = attribute(reader, "classname");
+                        final String testName = attribute(reader, "name");
+                        final long time = createTime(attribute(reader, "time"));
+                        if (filter.acceptsTestCase(file, className, testName, time)) {
+                            current = new TestCase(className, testName, time);
+                        } else {
+                            // The detail indexes include the skipped test cases
+                            detailIndex += skipTestCase(reader);
+                        }
+                    } else if ("system-out".equals(name) || "system-err".equals(name)) {
+                        skipElement(reader);
+                    } else if (current != null) {
+                        if ("skipped".equals(name)) {
+                            if (current.skippedMessage == null) {
+                                current.skippedMessage = attribute(reader, "message");
+                            }
+                        } else if ("failure".equals(name)) {
+                            if (current.failureMessage == null) {
+                                current.failureMessage = attribute(reader, "message");
+                                if (reference) {
+                                    current.failureDetail = detailResolver.reference(source, detailIndex);
+                                }
+                                if (read || signatures) {
+                                    text = new StringBuilder();
+                                }
+                            }
+                            detailIndex++;
+                        } else if ("error".equals(name)) {
+                            if (current.errorMessage == null) {
+                                current.errorMessage = attribute(reader, "message");
+                                if (reference) {
+                                    current.errorDetail = detailResolver.reference(source, detailIndex);
+                                }
+                                if (read || signatures) {
+                                    text = new StringBuilder();
+                                }
+                            }
+                            detailIndex++;
+                        }
+                    }
+                } else if (text != null && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    final String name = reader.getLocalName();
+                    if (current != null) {
+                        if (text != null && "failure".equals(name)) {
+                            final String value = text.toString().strip();
+                            if (read) {
+                                current.failureDetail = DetailMessage.of(value);
+                            }
+                            if (signatures) {
+                                current.failureSignature = FailureSignature.of(current.failureMessage, value);
+                            }
+                            text = null;
+                        } else if (text != null && "error".equals(name)) {
+                            final String value = text.toString().strip();
+                            if (read) {
+                                current.errorDetail = DetailMessage.of(value);
+                            }
+                            if (signatures) {
+                                current.errorSignature = FailureSignature.of(current.errorMessage, value);
+                            }
+                            text = null;
+                        } else if ("testcase".equals(name)) {
+                            if (filter.accepts(file, current.className, current.testName, current.time, current.status())) {
+                                consumer.accept(current.toResult(file));
+                            }
+                            current = null;
+                        }
+                    }
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Skips the current test case counting the {@code failure} and {@code error} elements.
+         *
+         * @param reader the reader positioned on the start of the test case
+         *
+         * @return the number of {@code failure} and {@code error} elements in the test case
+         *
+         * @throws XMLStreamException if reading the test case fails
+         */
+        private int skipTestCase(final XMLStreamReader reader) throws XMLStreamException {
+            int count = 0;
+            int depth = 1;
+            while (depth > 0 && reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    final String name = reader.getLocalName();
+                    if ("system-out".equals(name) || "system-err".equals(name)) {
+                        skipElement(reader);
+                        continue;
+                    }
+                    if ("failure".equals(name) || "error".equals(name)) {
+                        count++;
+                    }
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+            return count;
+        }
+
+        private String attribute(final XMLStreamReader reader, final String name) {
+            final String value = reader.getAttributeValue(null, name);
+            return value == null ? "" : value;
+        }
+    }
+
+    /**
+     * The state of a test case collected while streaming the report.
+     */
+    private class TestCase {
+        private final String className;
+        private final String testName;
+        private final long time;
+        private String skippedMessage;
+        private String failureMessage;
+        private DetailMessage failureDetail;
+        private FailureSignature failureSignature;
+        private String errorMessage;
+        private DetailMessage errorDetail;
+        private FailureSignature errorSignature;
+
+        private TestCase(final String className, final String testName, final long time) {
+            this.className = className;
+            this.testName = testName;
+            this.time = time;
+        }
+
+        Status status() {
+            // The order of precedence matches the DOM based parser, skipped then failed then errors
+            if (skippedMessage != null) {
+                return Status.SKIPPED;
+            }
+            if (failureMessage != null) {
+                return Status.FAILED;
+            }
+            if (errorMessage != null) {
+                return Status.ERROR;
+            }
+            return Status.PASSED;
+        }
+
+        TestResult toResult(final Path file) {
+            switch (status()) {
+                case SKIPPED:
+                    return TestResult.skipped(file, className, testName, time, skippedMessage);
+                case FAILED:
+                    return TestResult.failed(file, className, testName, time, failureMessage, failureDetail, failureSignature);
+                case ERROR:
+                    return TestResult.error(file, className, testName, time, errorMessage, errorDetail, errorSignature);
+                default:
+                    return TestResult.passed(file, className, testName, time);
+            }
+        }
+    }
+
+    /**
+     * A parser which scans the bytes of the report directly. File reports are memory-mapped, the markup is never
+     * decoded and only the attribute values which are kept are decoded to strings. Reports which are not encoded in
+     * UTF-8 are parsed with the {@link StaxReportParser}.
+     */
+    private class MappedReportParser implements ReportParser {
+        private final StaxReportParser fallback = new StaxReportParser();
+
+        @Override
+        public boolean parse(final ReportSource source, final TestFilter filter, final Consumer<TestResult> consumer) throws IOException {
+            final ByteBuffer buffer = source.bytes();
+            if (!XmlBytes.isUtf8(buffer)) {
+                return fallback.parse(source, filter, consumer);
+            }
+            try {
+                return parse(source, new XmlBytes(buffer), filter, consumer);
+            } catch (IOException e) {
+                throw new IOException("Failed to parse " + source.path(), e);
+            }
+        }
+
+        private boolean parse(final ReportSource source, final XmlBytes reader, final TestFilter filter,
+                              final Consumer<TestResult> consumer) throws IOException {
+            final Path file = source.path();
+            // Detail messages are referenced if the report can be read again, otherwise they're read if required
+            final boolean reference = referenceDetailMessages(source);
+            final boolean read = keepDetailMessages() && !reference;
+            final boolean signatures = computeSignatures();
+            boolean found = false;
+            TestCase current = null;
+            int detailStart = -1;
+            int skipDepth = 0;
+            int event;
+            while ((event = reader.next()) != XmlBytes.END_DOCUMENT) {
+                if (skipDepth > 0) {
+                    skipDepth += event == XmlBytes.START_ELEMENT ? 1 : -1;
+                } else if (event == XmlBytes.START_ELEMENT) {
+                    if (reader.isElement("testsuite")) {
+                        found = true;
+                    } else if (reader.isElement("testcase")) {
+                        final String className = reader.attribute("classname");
+                        final String testName = reader.attribute("name");
+                        final long time = createTime(reader.attribute("time"));
+                        if (filter.acceptsTestCase(file, className, testName, time)) {
+                            current = new TestCase(className, testName, time);
+                        } else {
+                            skipDepth = 1;
+                        }
+                    } else if (reader.isElement("system-out") || reader.isElement("system-err")) {
+                        skipDepth = 1;
+                    } else if (current != null) {
+                        if (reader.isElement("skipped")) {
+                            if (current.skippedMessage == null) {
+                                current.skippedMessage = reader.attribute("message");
+                            }
+                        } else if (reader.isElement("failure")) {
+                            if (current.failureMessage == null) {
+                                current.failureMessage = reader.attribute("message");
+                                detailStart = reader.contentStart();
+                            }
+                        } else if (reader.isElement("error")) {
+                            if (current.errorMessage == null) {
+                                current.errorMessage = reader.attribute("message");
+                                detailStart = reader.contentStart();
+                            }
+                        }
+                    }
+                } else if (current != null) {
+                    if (detailStart >= 0 && reader.isElement("failure")) {
+                        final String text = read || signatures ? reader.text(detailStart, reader.tagStart()).strip() : null;
+                        current.failureDetail = detail(source, reader, detailStart, reference, read ? text : null);
+                        if (signatures) {
+                            current.failureSignature = FailureSignature.of(current.failureMessage, text);
+                        }
+                        detailStart = -1;
+                    } else if (detailStart >= 0 && reader.isElement("error")) {
+                        final String text = read || signatures ? reader.text(detailStart, reader.tagStart()).strip() : null;
+                        current.errorDetail = detail(source, reader, detailStart, reference, read ? text : null);
+                        if (signatures) {
+                            current.errorSignature = FailureSignature.of(current.errorMessage, text);
+                        }
+                        detailStart = -1;
+                    } else if (reader.isElement("testcase")) {
+                        if (filter.accepts(file, current.className, current.testName, current.time, current.status())) {
+                            consumer.accept(current.toResult(file));
+                        }
+                        current = null;
+                    }
+                }
+            }
+            return found;
+        }
+
+        private DetailMessage detail(final ReportSource source, final XmlBytes reader, final int start,
+                                     final boolean reference, final String text) {
+            if (reference) {
+                return detailResolver.reference(source, start, reader.tagStart());
+            }
+            if (text != null) {
+                return DetailMessage.of(text);
+            }
+            return DetailMessage.EMPTY;
+        }
+    }
+
+    /**
+     * A minimal pull reader over the bytes of a UTF-8 encoded XML document. Only element start and end events are
+     * reported, text is only decoded on request. Entities other than the predefined and character references are
+     * not supported.
+     */
+    private static class XmlBytes {
+        static final int END_DOCUMENT = 0;
+        static final int START_ELEMENT = 1;
+        static final int END_ELEMENT = 2;
+
+        private final ByteBuffer buffer;
+        private final int limit;
+        private int pos;
+        private int[] names = new int[32];
+        private int depth;
+        private boolean pendingEnd;
+        private int nameStart;
+        private int nameEnd;
+        private int attributesEnd;
+        private int tagStart;
+        private int contentStart;
+
+        private XmlBytes(final ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.limit = buffer.limit();
+            this.pos = hasBom(buffer) ? 3 : 0;
+        }
+
+        /**
+         * Checks whether the document can be read as UTF-8 based on the byte order mark and the encoding in the XML
+         * declaration.
+         *
+         * @param buffer the document
+         *
+         * @return {@code true} if the document is UTF-8 or ASCII encoded
+         */
+        static boolean isUtf8(final ByteBuffer buffer) {
+            final int start = hasBom(buffer) ? 3 : 0;
+            final int limit = buffer.limit();
+            if (limit - start >= 2 && (buffer.get(start) == 0 || buffer.get(start + 1) == 0
+                    || (buffer.get(start) & 0xFF) == 0xFE || (buffer.get(start) & 0xFF) == 0xFF)) {
+                return false;
+            }
+            if (!startsWith(buffer, limit, start, "<?xml")) {
+                return true;
+            }
+            final int end = indexOf(buffer, limit, start, "?>");
+            if (end < 0) {
+                return true;
+            }
+            final int encoding = indexOf(buffer, end, start, "encoding");
+            if (encoding < 0) {
+                return true;
+            }
+            int i = encoding + "encoding".length();
+            while (i < end && (buffer.get(i) == '=' || isWhitespace(buffer.get(i)))) {
+                i++;
+            }
+            if (i >= end) {
+                return true;
+            }
+            final byte quote = buffer.get(i);
+            final int valueEnd = indexOf(buffer, end, i + 1, quote == '\'' ? "'" : "\"");
+            if (valueEnd < 0) {
+                return true;
+            }
+            final String name = new String(copy(buffer, i + 1, valueEnd), StandardCharsets.US_ASCII);
+            return "UTF-8".equalsIgnoreCase(name) || "UTF8".equalsIgnoreCase(name)
+                    || "US-ASCII".equalsIgnoreCase(name) || "ASCII".equalsIgnoreCase(name);
+        }
+
+        /**
+         * Decodes the text content of the byte range. Character data, CDATA sections and entity references are
+         * decoded, any markup is skipped and line endings are normalized.
+         *
+         * @param buffer the document
+         * @param start  the first byte of the range
+         * @param end    the byte after the range
+         *
+         * @return the decoded text
+         *
+         * @throws IOException if the range is not well-formed
+         */
+        static String decodeText(final ByteBuffer buffer, final int start, final int end) throws IOException {
+            final Utf8Builder builder = new Utf8Builder(end - start);
+            int i = start;
+            while (i < end) {
+                final byte b = buffer.get(i);
+                if (b == '<') {
+                    if (startsWith(buffer, end, i, "<![CDATA[")) {
+                        final int close = require(buffer, end, i + 9, "]]>");
+                        for (int j = i + 9; j < close; j++) {
+                            j = appendNormalized(builder, buffer, close, j, (byte) '\n');
+                        }
+                        i = close + 3;
+                    } else if (startsWith(buffer, end, i, "<!--")) {
+                        i = require(buffer, end, i + 4, "-->") + 3;
+                    } else if (startsWith(buffer, end, i, "<?")) {
+                        i = require(buffer, end, i + 2, "?>") + 2;
+                    } else {
+                        i = tagEnd(buffer, end, i + 1) + 1;
+                    }
+                } else if (b == '&') {
+                    i = appendEntity(builder, buffer, end, i);
+                } else {
+                    i = appendNormalized(builder, buffer, end, i, (byte) '\n') + 1;
+                }
+            }
+            return builder.toString();
+        }
+
+        /**
+         * Moves to the next element start or end tag.
+         *
+         * @return {@link #START_ELEMENT}, {@link #END_ELEMENT} or {@link #END_DOCUMENT}
+         *
+         * @throws IOException if the document is not well-formed
+         */
+        int next() throws IOException {
+            if (pendingEnd) {
+                pendingEnd = false;
+                depth--;
+                tagStart = contentStart;
+                return END_ELEMENT;
+            }
+            while (true) {
+                final int lt = indexOf(buffer, limit, pos, "<");
+                if (lt < 0) {
+                    if (depth > 0) {
+                        throw new IOException("Unexpected end of document, the element " + name(depth - 1) + " is not closed.");
+                    }
+                    return END_DOCUMENT;
+                }
+                if (startsWith(buffer, limit, lt, "<?")) {
+                    pos = require(buffer, limit, lt + 2, "?>") + 2;
+                } else if (startsWith(buffer, limit, lt, "<!--")) {
+                    pos = require(buffer, limit, lt + 4, "-->") + 3;
+                } else if (startsWith(buffer, limit, lt, "<![CDATA[")) {
+                    pos = require(buffer, limit, lt + 9, "]]>") + 3;
+                } else if (startsWith(buffer, limit, lt, "<!")) {
+                    final int close = require(buffer, limit, lt + 2, ">");
+                    final int subset = indexOf(buffer, close, lt + 2, "[");
+                    pos = (subset < 0 ? close : require(buffer, limit, subset, "]>")) + 1;
+                } else if (startsWith(buffer, limit, lt, "</")) {
+                    tagStart = lt;
+                    nameStart = lt + 2;
+                    nameEnd = scanName(nameStart);
+                    final int gt = require(buffer, limit, nameEnd, ">");
+                    if (depth == 0 || !matches(depth - 1)) {
+                        throw new IOException(String.format("Unexpected end tag %s at offset %d.",
+                                new String(bytes(nameStart, nameEnd), StandardCharsets.UTF_8), lt));
+                    }
+                    depth--;
+                    pos = gt + 1;
+                    return END_ELEMENT;
+                } else {
+                    tagStart = lt;
+                    nameStart = lt + 1;
+                    nameEnd = scanName(nameStart);
+                    final int gt = tagEnd(buffer, limit, nameEnd);
+                    final boolean empty = buffer.get(gt - 1) == '/';
+                    attributesEnd = empty ? gt - 1 : gt;
+                    contentStart = gt + 1;
+                    pos = gt + 1;
+                    push();
+                    pendingEnd = empty;
+                    return START_ELEMENT;
+                }
+            }
+        }
+
+        /**
+         * Checks the name of the current element.
+         *
+         * @param name the ASCII name to check
+         *
+         * @return {@code true} if the current element has the name
+         */
+        boolean isElement(final String name) {
+            return nameEnd - nameStart == name.length() && startsWith(buffer, nameEnd, nameStart, name);
+        }
+
+        /**
+         * Decodes the value of an attribute of the current start element.
+         *
+         * @param name the ASCII name of the attribute
+         *
+         * @return the value of the attribute or an empty string if the attribute does not exist
+         *
+         * @throws IOException if the attributes are not well-formed
+         */
+        String attribute(final String name) throws IOException {
+            int i = nameEnd;
+            while (i < attributesEnd) {
+                if (isWhitespace(buffer.get(i))) {
+                    i++;
+                    continue;
+                }
+                final int start = i;
+                while (i < attributesEnd && buffer.get(i) != '=' && !isWhitespace(buffer.get(i))) {
+                    i++;
+                }
+                final boolean matches = i - start == name.length() && startsWith(buffer, i, start, name);
+                while (i < attributesEnd && (buffer.get(i) == '=' || isWhitespace(buffer.get(i)))) {
+                    i++;
+                }
+                if (i >= attributesEnd || (buffer.get(i) != '"' && buffer.get(i) != '\'')) {
+                    throw new IOException("Invalid attribute value at offset " + i + ".");
+                }
+                final int end = require(buffer, attributesEnd, i + 1, buffer.get(i) == '"' ? "\"" : "'");
+                if (matches) {
+                    return decodeAttribute(i + 1, end);
+                }
+                i = end + 1;
+            }
+            return "";
+        }
+
+        /**
+         * Decodes the text content of the byte range.
+         *
+         * @param start the first byte of the range
+         * @param end   the byte after the range
+         *
+         * @return the decoded text
+         *
+         * @throws IOException if the range is not well-formed
+         */
+        String text(final int start, final int end) throws IOException {
+            return decodeText(buffer, start, end);
+        }
+
+        /**
+         * The offset of the byte after the current start tag.
+         *
+         * @return the offset of the content
+         */
+        int contentStart() {
+            return contentStart;
+        }
+
+        /**
+         * The offset of the current tag. For an empty element the offset of the end element is the same as the
+         * content.
+         *
+         * @return the offset of the tag
+         */
+        int tagStart() {
+            return tagStart;
+        }
+
+        private String decodeAttribute(final int start, final int end) throws IOException {
+            final Utf8Builder builder = new Utf8Builder(end - start);
+            int i = start;
+            while (i < end) {
+                if (buffer.get(i) == '&') {
+                    i = appendEntity(builder, buffer, end, i);
+                } else {
+                    i = appendNormalized(builder, buffer, end, i, (byte) ' ') + 1;
+                }
+            }
+            return builder.toString();
+        }
+
+        private int scanName(final int start) throws IOException {
+            int i = start;
+            while (i < limit) {
+                final byte b = buffer.get(i);
+                if (b == '>' || b == '/' || isWhitespace(b)) {
+                    break;
+                }
+                i++;
+            }
+            if (i == start || i >= limit) {
+                throw new IOException("Invalid element name at offset " + start + ".");
+            }
+            return i;
+        }
+
+        private void push() {
+            if (depth * 2 == names.length) {
+                names = Arrays.copyOf(names, names.length * 2);
+            }
+            names[depth * 2] = nameStart;
+            names[depth * 2 + 1] = nameEnd;
+            depth++;
+        }
+
+        private boolean matches(final int index) {
+            final int start = names[index * 2];
+            final int len = names[index * 2 + 1] - start;
+            if (len != nameEnd - nameStart) {
+                return false;
+            }
+            for (int i = 0; i < len; i++) {
+                if (buffer.get(start + i) != buffer.get(nameStart + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String name(final int index) {
+            return new String(bytes(names[index * 2], names[index * 2 + 1]), StandardCharsets.UTF_8);
+        }
+
+        private byte[] bytes(final int start, final int end) {
+            return copy(buffer, start, end);
+        }
+
+        private static byte[] copy(final ByteBuffer buffer, final int start, final int end) {
+            final byte[] result = new byte[end - start];
+            buffer.duplicate().position(start).get(result);
+            return result;
+        }
+
+        private static boolean hasBom(final ByteBuffer buffer) {
+            return buffer.limit() >= 3 && (buffer.get(0) & 0xFF) == 0xEF && (buffer.get(1) & 0xFF) == 0xBB
+                    && (buffer.get(2) & 0xFF) == 0xBF;
+        }
+
+        private static boolean isWhitespace(final byte b) {
+            return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+        }
+
+        /**
+         * Appends the byte, normalizing a carriage return, or a carriage return line feed pair, to the replacement.
+         * A tab or a line feed is also replaced if the replacement is a space as required for attribute values.
+         *
+         * @return the offset of the last byte consumed
+         */
+        private static int appendNormalized(final Utf8Builder builder, final ByteBuffer buffer, final int end,
+                                            final int i, final byte replacement) {
+            final byte b = buffer.get(i);
+            if (b == '\r') {
+                builder.append(replacement);
+                return i + 1 < end && buffer.get(i + 1) == '\n' ? i + 1 : i;
+            }
+            if (replacement == ' ' && (b == '\n' || b == '\t')) {
+                builder.append(replacement);
+            } else {
+                builder.append(b);
+            }
+            return i;
+        }
+
+        /**
+         * Appends the entity reference starting at the offset.
+         *
+         * @return the offset after the entity reference
+         */
+        private static int appendEntity(final Utf8Builder builder, final ByteBuffer buffer, final int end, final int i) throws IOException {
+            final int semicolon = require(buffer, end, i + 1, ";");
+            if (startsWith(buffer, semicolon, i, "&lt")) {
+                builder.append((byte) '<');
+            } else if (startsWith(buffer, semicolon, i, "&gt")) {
+                builder.append((byte) '>');
+            } else if (startsWith(buffer, semicolon, i, "&amp")) {
+                builder.append((byte) '&');
+            } else if (startsWith(buffer, semicolon, i, "&quot")) {
+                builder.append((byte) '"');
+            } else if (startsWith(buffer, semicolon, i, "&apos")) {
+                builder.append((byte) '\'');
+            } else if (startsWith(buffer, semicolon, i, "&#")) {
+                final boolean hex = startsWith(buffer, semicolon, i, "&#x");
+                int codePoint = 0;
+                for (int j = i + (hex ? 3 : 2); j < semicolon; j++) {
+                    final int digit = Character.digit(buffer.get(j), hex ? 16 : 10);
+                    if (digit < 0 || codePoint > Character.MAX_CODE_POINT) {
+                        throw new IOException("Invalid character reference at offset " + i + ".");
+                    }
+                    codePoint = codePoint * (hex ? 16 : 10) + digit;
+                }
+                if (!Character.isValidCodePoint(codePoint)) {
+                    throw new IOException("Invalid character reference at offset " + i + ".");
+                }
+                builder.appendCodePoint(codePoint);
+            } else {
+                throw new IOException("Undeclared entity at offset " + i + ".");
+            }
+            return semicolon + 1;
+        }
+
+        /**
+         * Finds the closing {@code >} of a tag, skipping quoted attribute values which may contain the character.
+         */
+        private static int tagEnd(final ByteBuffer buffer, final int end, final int from) throws IOException {
+            int i = from;
+            while (i < end) {
+                final byte b = buffer.get(i);
+                if (b == '>') {
+                    return i;
+                }
+                if (b == '"' || b == '\'') {
+                    i = require(buffer, end, i + 1, b == '"' ? "\"" : "'");
+                }
+                i++;
+            }
+            throw new IOException("Unexpected end of document, the tag at offset " + from + " is not closed.");
+        }
+
+        private static int require(final ByteBuffer buffer, final int end, final int from, final String value) throws IOException {
+            final int index = indexOf(buffer, end, from, value);
+            if (index < 0) {
+                throw new IOException("Unexpected end of document, expected " + value + " after offset " + from + ".");
+            }
+            return index;
+        }
+
+        private static boolean startsWith(final ByteBuffer buffer, final int end, final int pos, final String value) {
+            if (end - pos < value.length()) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                if (buffer.get(pos + i) != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int indexOf(final ByteBuffer buffer, final int end, final int from, final String value) {
+            final byte first = (byte) value.charAt(0);
+            for (int i = from; i <= end - value.length(); i++) {
+                if (buffer.get(i) == first && startsWith(buffer, end, i, value)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Collects UTF-8 encoded bytes which are decoded once to a string.
+     */
+    private static class Utf8Builder {
+        private byte[] bytes;
+        private int len;
+
+        private Utf8Builder(final int capacity) {
+            bytes = new byte[Math.max(capacity, 16)];
+        }
+
+        void append(final byte b) {
+            if (len == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[len++] = b;
+        }
+
+        void appendCodePoint(final int codePoint) {
+            for (byte b : new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8)) {
+                append(b);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, len, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A parser which reads the full report into a Jsoup {@link Document}.
+     */
+    private class JsoupReportParser implements ReportParser {
+
+        @Override
+        public boolean parse(final ReportSource source, final TestFilter filter, final Consumer<TestResult> consumer) throws IOException {
+            final Path file = source.path();
+            final Document document;
+            try (InputStream in = source.open()) {
+                document = Jsoup.parse(in, null, "", Parser.xmlParser());
+            }
+
+            final Elements testsuites = document.select("testsuite");
+            if (testsuites.isEmpty()) {
+                return false;
+            }
+            final Elements tests = testsuites.select("testcase");
+            for (Element test : tests) {
+                final String className = test.attr("classname");
+                final String testName = test.attr("name");
+                final long time = createTime(test.attr("time"));
+                if (!filter.acceptsTestCase(file, className, testName, time)) {
+                    continue;
+                }
+                final Elements skipped = test.select("skipped");
+                if (!skipped.isEmpty()) {
+                    if (filter.accepts(file, className, testName, time, Status.SKIPPED)) {
+                        consumer.accept(parseSkipped(file, test, time, skipped));
+                    }
+                    continue;
+                }
+                final Elements failure = test.select("failure");
+                if (!failure.isEmpty()) {
+                    if (filter.accepts(file, className, testName, time, Status.FAILED)) {
+                        consumer.accept(parseFailed(file, test, time, failure));
+                    }
+                    continue;
+                }
+                final Elements errors = test.select("error");
+                if (!errors.isEmpty()) {
+                    if (filter.accepts(file, className, testName, time, Status.ERROR)) {
+                        consumer.accept(parseError(file, test, time, errors));
+                    }
+                    continue;
+                }
+                if (filter.accepts(file, className, testName, time, Status.PASSED)) {
+                    consumer.accept(TestResult.passed(file, className, testName, time));
+                }
+            }
+            return true;
+        }
+
+        private TestResult parseSkipped(final Path file, final Element test, final long time, final Elements skipped) {
+            final Element e = skipped.first();
+            String message = "";
+            if (e != null) {
+                message = e.attr("message");
+            }
+            return TestResult.skipped(file, test.attr("classname"), test.attr("name"), time, message);
+        }
+
+        private TestResult parseFailed(final Path file, final Element test, final long time, final Elements failed) {
+            final Element failure = failed.first();
+            String message = "";
+            DetailMessage detailMessage = DetailMessage.EMPTY;
+            FailureSignature signature = null;
+            if (failure != null) {
+                message = failure.attr("message");
+                if (failure.hasText() && keepDetailMessages()) {
+                    detailMessage = DetailMessage.of(failure.text());
+                }
+                if (computeSignatures()) {
+                    signature = FailureSignature.of(message, failure.wholeText());
+                }
+            }
+            return TestResult.failed(file, test.attr("classname"), test.attr("name"), time, message, detailMessage, signature);
+        }
+
+        private TestResult parseError(final Path file, final Element test, final long time, final Elements failed) {
+            @SuppressWarnings("DuplicatedCode")
+            final Element error = failed.first();
+            String message = "";
+            DetailMessage detailMessage = DetailMessage.EMPTY;
+            FailureSignature signature = null;
+            if (error != null) {
+                message = error.attr("message");
+                if (error.hasText() && keepDetailMessages()) {
+                    detailMessage = DetailMessage.of(error.text());
+                }
+                if (computeSignatures()) {
+                    signature = FailureSignature.of(message, error.wholeText());
+                }
+            }
+            return TestResult.error(file, test.attr("classname"), test.attr("name"), time, message, detailMessage, signature);
+        }
+    }
+
+    private static class TestResult implements Comparable<TestResult> {
+        private final Path file;
+        private final Status status;
+        private final String title;
+        private final String className;
+        private final String testName;
+        // The time in microseconds
+        private final long time;
+        private final String message;
+        private final DetailMessage detailMessage;
+        private final FailureSignature signature;
+
+        private TestResult(final Path file, final Status status, final String className, final String testName,
+                           final long time, final String message, final DetailMessage detailMessage, final FailureSignature signature) {
+            this(file, status, className, parseTestClassName(file, className), testName, time, message, detailMessage, signature);
+        }
+
+        private TestResult(final Path file, final Status status, final String title, final String className, final String testName,
+                           final long time, final String message, final DetailMessage detailMessage, final FailureSignature signature) {
             this.file = file;
             this.status = status;
-            this.title = className;
-            this.className = parseTestClassName(file, className);
+            this.title = title;
+            this.className = className;
             this.testName = testName;
             this.time = time;
             this.message = message == null ? "" : message;
-            this.detailMessage = detailMessage == null ? "" : detailMessage;
+            this.detailMessage = detailMessage == null ? DetailMessage.EMPTY : detailMessage;
+            this.signature = signature;
         }
 
         static TestResult passed(final Path file, final String className, final String testName,
-                                 final BigDecimal time) {
-            return new TestResult(file, Status.PASSED, className, testName, time, null, null);
+                                 final long time) {
+            return new TestResult(file, Status.PASSED, className, testName, time, null, null, null);
         }
 
-        static TestResult skipped(final Path file, final String className, final String testName, final BigDecimal time,
+        static TestResult skipped(final Path file, final String className, final String testName, final long time,
                                   final String message) {
-            return new TestResult(file, Status.SKIPPED, className, testName, time, message, null);
+            return new TestResult(file, Status.SKIPPED, className, testName, time, message, null, null);
         }
 
-        static TestResult failed(final Path file, final String className, final String testName, final BigDecimal time,
-                                 final String message, final String detailMessage) {
-            return new TestResult(file, Status.FAILED, className, testName, time, message, detailMessage);
+        static TestResult failed(final Path file, final String className, final String testName, final long time,
+                                 final String message, final DetailMessage detailMessage, final FailureSignature signature) {
+            return new TestResult(file, Status.FAILED, className, testName, time, message, detailMessage, signature);
         }
 
-        static TestResult error(final Path file, final String className, final String testName, final BigDecimal time,
-                                final String message, final String detailMessage) {
-            return new TestResult(file, Status.ERROR, className, testName, time, message, detailMessage);
+        static TestResult error(final Path file, final String className, final String testName, final long time,
+                                final String message, final DetailMessage detailMessage, final FailureSignature signature) {
+            return new TestResult(file, Status.ERROR, className, testName, time, message, detailMessage, signature);
         }
 
         @Override
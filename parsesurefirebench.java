@@ -0,0 +1,333 @@
+///usr/bin/env jbang "$0" "$@" ; exit $?
+//JAVA 11+
+//DEPS info.picocli:picocli:4.7.5
+//DEPS org.openjdk.jmh:jmh-core:1.37
+//DEPS org.openjdk.jmh:jmh-generator-annprocess:1.37
+//SOURCES parsesurefire.java
+
+package benchmark;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import picocli.CommandLine;
+
+/**
+ * JMH benchmarks for the {@code parse-surefire-report} parsing pipeline. The GC profiler is always enabled so the
+ * allocations per operation are reported along with the time. Any JMH option may be passed, for example
+ * {@code -p engine=mapped} or a benchmark regular expression.
+ * <p>
+ * JMH does not allow benchmarks in the default package, so the script internals are invoked through method
+ * handles.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class parsesurefirebench {
+
+    public static void main(final String[] args) throws Exception {
+        final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        final OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLineOptions);
+        if (commandLineOptions.getIncludes().isEmpty()) {
+            builder.include(parsesurefirebench.class.getName());
+        }
+        builder.addProfiler(GCProfiler.class);
+        new Runner(builder.build()).run();
+    }
+
+    @Benchmark
+    public Object parseResults(final ParseState state) throws Throwable {
+        final Object results = Surefire.NEW_RESULT_STORE.invoke();
+        Surefire.PARSE_RESULTS.invoke(state.app, Surefire.REPORT_SOURCE.invoke(state.report), results);
+        return results;
+    }
+
+    @Benchmark
+    public long createTime(final TimeState state) throws Throwable {
+        return (long) Surefire.CREATE_TIME.invoke(state.app, state.value);
+    }
+
+    @Benchmark
+    public String formatTotal(final AppState state) throws Throwable {
+        return (String) Surefire.FORMAT_TOTAL.invoke(state.app, 6000, 4149, 655, 587, 609);
+    }
+
+    @Benchmark
+    public Object addResults(final StoreState state) throws Throwable {
+        final Object results = Surefire.NEW_RESULT_STORE.invoke();
+        for (Object result : state.results) {
+            Surefire.ADD.invoke(results, result);
+        }
+        return results;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int parseFile(final TreeState state) {
+        return Surefire.commandLine().execute(state.dir.toString(), "-B", "-r", state.report, "--parser", state.engine);
+    }
+
+    @State(Scope.Benchmark)
+    public static class AppState {
+        Object app;
+
+        @Setup(Level.Trial)
+        public void createApp() {
+            app = Surefire.create("-B");
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ParseState {
+        @Param({"stax", "mapped", "jsoup"})
+        String engine;
+
+        @Param({"10", "1000", "10000"})
+        int tests;
+
+        Path dir;
+        Path report;
+        Object app;
+
+        @Setup(Level.Trial)
+        public void createReport() throws IOException {
+            dir = Files.createTempDirectory("parsesurefirebench");
+            Surefire.generate(dir, "-m", "1", "-c", "1", "-k", Integer.toString(tests));
+            report = dir.resolve("module0/target/surefire-reports/TEST-org.acme.m0.Test0.xml");
+            app = Surefire.create("-B", "--parser", engine);
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            Reports.delete(dir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class TimeState {
+        @Param({"0.001", "12.345678", "1,234.5", "2.5E2", "1.5e-4", "2.5E+2"})
+        String value;
+
+        Object app;
+
+        @Setup(Level.Trial)
+        public void createApp() {
+            app = Surefire.create("-B");
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class StoreState {
+        @Param({"1000", "100000"})
+        int size;
+
+        Object[] results;
+
+        @Setup(Level.Trial)
+        public void createResults() throws Throwable {
+            final Random random = new Random(size);
+            results = new Object[size];
+            for (int i = 0; i < size; i++) {
+                final Path file = Path.of("module" + (i % 20), "target", "surefire-reports", "TEST-org.acme.bench.Test" + (i / 50) + ".xml");
+                final String className = "org.acme.bench.Test" + (i / 50);
+                final long time = random.nextInt(5_000_000);
+                if (i % 10 == 0) {
+                    results[i] = Surefire.SKIPPED.invoke(file, className, "test" + i, time, "Skipped " + i);
+                } else {
+                    results[i] = Surefire.PASSED.invoke(file, className, "test" + i, time);
+                }
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class TreeState {
+        @Param({"stax", "mapped", "jsoup"})
+        String engine;
+
+        @Param({"summary", "detail"})
+        String report;
+
+        @Param({"10"})
+        int modules;
+
+        @Param({"50"})
+        int classes;
+
+        @Param({"20"})
+        int tests;
+
+        Path dir;
+
+        @Setup(Level.Trial)
+        public void createTree() throws IOException {
+            dir = Files.createTempDirectory("parsesurefirebench");
+            Surefire.generate(dir, "-m", Integer.toString(modules), "-c", Integer.toString(classes), "-k", Integer.toString(tests));
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            Reports.delete(dir);
+        }
+    }
+
+    /**
+     * Method handles for the {@code parsesurefire} internals used by the benchmarks.
+     */
+    static final class Surefire {
+        private static final Class<?> TYPE = load("parsesurefire");
+        private static final Class<?> REPORT_SOURCE_TYPE = load("parsesurefire$ReportSource");
+        private static final Class<?> RESULT_STORE_TYPE = load("parsesurefire$ResultStore");
+        private static final Class<?> TEST_RESULT_TYPE = load("parsesurefire$TestResult");
+
+        static final MethodHandle NEW_RESULT_STORE = find(RESULT_STORE_TYPE, lookup -> lookup.findConstructor(RESULT_STORE_TYPE, MethodType.methodType(void.class)));
+        static final MethodHandle ADD = find(RESULT_STORE_TYPE, lookup -> lookup.findVirtual(RESULT_STORE_TYPE, "add",
+                MethodType.methodType(boolean.class, TEST_RESULT_TYPE)));
+        static final MethodHandle REPORT_SOURCE = find(REPORT_SOURCE_TYPE, lookup -> lookup.findStatic(REPORT_SOURCE_TYPE, "of",
+                MethodType.methodType(REPORT_SOURCE_TYPE, Path.class)));
+        static final MethodHandle PARSE_RESULTS = find(TYPE, lookup -> lookup.findVirtual(TYPE, "parseResults",
+                MethodType.methodType(void.class, REPORT_SOURCE_TYPE, RESULT_STORE_TYPE)));
+        static final MethodHandle CREATE_TIME = find(TYPE, lookup -> lookup.findVirtual(TYPE, "createTime",
+                MethodType.methodType(long.class, String.class)));
+        static final MethodHandle FORMAT_TOTAL = find(TYPE, lookup -> lookup.findVirtual(TYPE, "formatTotal",
+                MethodType.methodType(String.class, int.class, int.class, int.class, int.class, int.class)));
+        static final MethodHandle PASSED = find(TEST_RESULT_TYPE, lookup -> lookup.findStatic(TEST_RESULT_TYPE, "passed",
+                MethodType.methodType(TEST_RESULT_TYPE, Path.class, String.class, String.class, long.class)));
+        static final MethodHandle SKIPPED = find(TEST_RESULT_TYPE, lookup -> lookup.findStatic(TEST_RESULT_TYPE, "skipped",
+                MethodType.methodType(TEST_RESULT_TYPE, Path.class, String.class, String.class, long.class, String.class)));
+
+        /**
+         * Creates a command line for the script with the output discarded.
+         *
+         * @return the command line
+         */
+        static CommandLine commandLine() {
+            try {
+                final CommandLine commandLine = new CommandLine(TYPE.getConstructor().newInstance());
+                commandLine.setOut(new PrintWriter(Writer.nullWriter()));
+                commandLine.setErr(new PrintWriter(Writer.nullWriter()));
+                return commandLine;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Failed to create " + TYPE.getName(), e);
+            }
+        }
+
+        /**
+         * Creates the command with the arguments parsed, but not executed.
+         *
+         * @param args the arguments
+         *
+         * @return the command
+         */
+        static Object create(final String... args) {
+            final CommandLine commandLine = commandLine();
+            commandLine.parseArgs(args);
+            return commandLine.getCommand();
+        }
+
+        /**
+         * Generates reports into the directory with the {@code generate} command.
+         *
+         * @param dir  the directory to generate the reports in
+         * @param args the arguments for the generate command
+         */
+        static void generate(final Path dir, final String... args) {
+            final String[] generateArgs = new String[args.length + 2];
+            generateArgs[0] = "generate";
+            generateArgs[1] = dir.toString();
+            System.arraycopy(args, 0, generateArgs, 2, args.length);
+            final int exitCode = commandLine().execute(generateArgs);
+            if (exitCode != 0) {
+                throw new IllegalStateException("Failed to generate the reports in " + dir);
+            }
+        }
+
+        private static Class<?> load(final String name) {
+            try {
+                return Class.forName(name);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException("Could not find " + name + ", the script must be on the class path.", e);
+            }
+        }
+
+        private static MethodHandle find(final Class<?> type, final Finder finder) {
+            try {
+                return finder.find(MethodHandles.privateLookupIn(type, MethodHandles.lookup()));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Failed to find the method handle on " + type.getName(), e);
+            }
+        }
+
+        private interface Finder {
+            MethodHandle find(MethodHandles.Lookup lookup) throws ReflectiveOperationException;
+        }
+    }
+
+    /**
+     * Utilities for the generated reports.
+     */
+    static final class Reports {
+
+        /**
+         * Deletes the directory and all of its contents.
+         *
+         * @param dir the directory to delete
+         *
+         * @throws IOException if deleting fails
+         */
+        static void delete(final Path dir) throws IOException {
+            if (dir == null || Files.notExists(dir)) {
+                return;
+            }
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
+                    if (exc != null) {
+                        throw new UncheckedIOException(exc);
+                    }
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+}